@@ -1,12 +1,8 @@
 package hudson.plugins.xcal;
 
-import com.cloudbees.plugins.credentials.CredentialsMatchers;
-import com.cloudbees.plugins.credentials.CredentialsProvider;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.google.common.base.MoreObjects;
-import com.google.gerrit.extensions.api.changes.ReviewInput;
-import com.google.gerrit.extensions.api.changes.ReviewResult;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.sonyericsson.hudson.plugins.gerrit.trigger.GerritManagement;
 import com.sonyericsson.hudson.plugins.gerrit.trigger.GerritServer;
@@ -15,14 +11,31 @@ import com.sonyericsson.hudson.plugins.gerrit.trigger.hudsontrigger.GerritTrigge
 import hudson.AbortException;
 import hudson.EnvVars;
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Util;
 import hudson.model.*;
 import hudson.plugins.xcal.action.XcalscanAnalysisAction;
-import hudson.plugins.xcal.payload.IssueDiff;
+import hudson.plugins.xcal.action.XcalscanGerritReviewAction;
+import hudson.plugins.xcal.service.ChangeCoalescer;
+import hudson.plugins.xcal.service.ChangedLines;
+import hudson.plugins.xcal.service.ChangedLinesCallable;
+import hudson.plugins.xcal.service.CredentialResolver;
+import hudson.plugins.xcal.service.GerritClientRegistry;
+import hudson.plugins.xcal.service.GerritReviewDispatcher;
+import hudson.plugins.xcal.service.GerritReviewOutbox;
+import hudson.plugins.xcal.service.GerritServerGuard;
+import hudson.plugins.xcal.service.GerritServerMetrics;
+import hudson.plugins.xcal.service.GerritServerProbe;
 import hudson.plugins.xcal.service.GerritService;
+import hudson.plugins.xcal.service.IssueDiffStreamCallable;
+import hudson.plugins.xcal.service.PublishTimer;
+import hudson.plugins.xcal.service.RenderReviewCallable;
+import hudson.plugins.xcal.service.RenderedReview;
+import hudson.plugins.xcal.service.ReviewJob;
+import hudson.plugins.xcal.service.ReviewRenderOptions;
 import hudson.plugins.xcal.util.CommonUtil;
 import hudson.plugins.xcal.util.JenkinsRouter;
-import hudson.plugins.xcal.util.VariableUtil;
 import hudson.security.ACL;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
@@ -34,26 +47,47 @@ import jenkins.model.Jenkins;
 import jenkins.model.ParameterizedJobMixIn;
 import lombok.extern.slf4j.Slf4j;
 import net.sf.json.JSONObject;
+import org.apache.commons.lang3.LocaleUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
 
 import static hudson.plugins.xcal.util.Localization.getLocalized;
 
 @Slf4j
 public class XcalscanGerritPublisher extends Notifier {
 
+    public static final String DEFAULT_LOCALES = "en,zh_CN";
+    public static final int DEFAULT_MAX_INLINE_COMMENTS = 50;
+    public static final int DEFAULT_MAX_ISSUES = 500;
+    public static final int DEFAULT_MAX_MESSAGE_BYTES = 64 * 1024;
+
     private final String credential;
-    private AbstractBuild<?, ?> build;
-    private TaskListener listener;
+    private boolean probeServer;
+    private String locales = DEFAULT_LOCALES;
+    private boolean combineLocales;
+    private boolean inlineComments;
+    private Integer maxInlineComments;
+    private Integer maxIssues;
+    private Integer maxMessageBytes;
+    private boolean shardMessages;
+    private boolean changedLinesOnly;
+    private int contextLines;
+    private boolean asynchronous;
+    private boolean retryFailedPosts;
+    private boolean supersedeStalePatchsets;
+    private boolean skipDuplicateReviews;
+    private String issuesFile;
+    private boolean renderOnAgent;
 
     @DataBoundConstructor
     public XcalscanGerritPublisher(String credential) {
@@ -64,22 +98,198 @@ public class XcalscanGerritPublisher extends Notifier {
         return credential;
     }
 
-    private StandardUsernamePasswordCredentials getCredentials(String credential) {
-        log.info("[getCredentials] credential id: {}", credential);
-        StandardUsernamePasswordCredentials passwordCredentials = null;
-        if (StringUtils.isNotBlank(credential)) {
-            passwordCredentials = CredentialsProvider.findCredentialById(credential, StandardUsernamePasswordCredentials.class, this.build);
-        }
-        return passwordCredentials;
+    public boolean isProbeServer() {
+        return probeServer;
     }
 
-    private Map<String, String> getEnvs() throws IOException, InterruptedException {
-        Map<String, String> envParamMap = new LinkedHashMap<>();
-        EnvVars envVars = this.build.getEnvironment(this.listener);
-        for (Map.Entry<String, String> entry : envVars.entrySet()) {
-            envParamMap.put(entry.getKey(), entry.getValue());
-        }
-        return envParamMap;
+    @DataBoundSetter
+    public void setProbeServer(boolean probeServer) {
+        this.probeServer = probeServer;
+    }
+
+    public String getLocales() {
+        return StringUtils.defaultIfBlank(locales, DEFAULT_LOCALES);
+    }
+
+    /**
+     * Comma separated list of locales the review message is rendered in, e.g. {@code en,zh_CN}.
+     */
+    @DataBoundSetter
+    public void setLocales(String locales) {
+        this.locales = StringUtils.trimToNull(locales);
+    }
+
+    public boolean isCombineLocales() {
+        return combineLocales;
+    }
+
+    /**
+     * Posts all locales as one review message instead of one review per locale.
+     */
+    @DataBoundSetter
+    public void setCombineLocales(boolean combineLocales) {
+        this.combineLocales = combineLocales;
+    }
+
+    public boolean isInlineComments() {
+        return inlineComments;
+    }
+
+    /**
+     * Also posts each new issue as an inline comment on its patchset file and line.
+     */
+    @DataBoundSetter
+    public void setInlineComments(boolean inlineComments) {
+        this.inlineComments = inlineComments;
+    }
+
+    public int getMaxInlineComments() {
+        return maxInlineComments != null ? maxInlineComments : DEFAULT_MAX_INLINE_COMMENTS;
+    }
+
+    /**
+     * Maximum number of inline comments per review, the most severe issues are kept. Zero means no limit.
+     */
+    @DataBoundSetter
+    public void setMaxInlineComments(int maxInlineComments) {
+        this.maxInlineComments = maxInlineComments;
+    }
+
+    public int getMaxIssues() {
+        return maxIssues != null ? maxIssues : DEFAULT_MAX_ISSUES;
+    }
+
+    /**
+     * Maximum number of new and of fixed issues listed in the review message, the most severe issues are kept and
+     * the rest are counted per rule and per file. Zero means no limit, and so does {@link #setShardMessages sharding}.
+     */
+    @DataBoundSetter
+    public void setMaxIssues(int maxIssues) {
+        this.maxIssues = maxIssues;
+    }
+
+    public int getMaxMessageBytes() {
+        return maxMessageBytes != null ? maxMessageBytes : DEFAULT_MAX_MESSAGE_BYTES;
+    }
+
+    /**
+     * Maximum size of a review message in bytes, issue rows that do not fit are summarized. Zero means no limit, and
+     * sizes below {@link ReviewRenderOptions#getMinMessageBytes} are raised to it.
+     */
+    @DataBoundSetter
+    public void setMaxMessageBytes(int maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    public boolean isShardMessages() {
+        return shardMessages;
+    }
+
+    /**
+     * Splits a review message larger than the maximum message size into several messages on issue boundaries,
+     * posted one after the other, instead of summarizing the issues that do not fit. Every issue is listed then,
+     * regardless of the maximum number of issues.
+     */
+    @DataBoundSetter
+    public void setShardMessages(boolean shardMessages) {
+        this.shardMessages = shardMessages;
+    }
+
+    public boolean isChangedLinesOnly() {
+        return changedLinesOnly;
+    }
+
+    /**
+     * Only reports issues on lines the patchset changed, diffed locally in the workspace repository.
+     */
+    @DataBoundSetter
+    public void setChangedLinesOnly(boolean changedLinesOnly) {
+        this.changedLinesOnly = changedLinesOnly;
+    }
+
+    public int getContextLines() {
+        return contextLines;
+    }
+
+    /**
+     * Number of lines around a changed hunk whose issues are still reported.
+     */
+    @DataBoundSetter
+    public void setContextLines(int contextLines) {
+        this.contextLines = Math.max(0, contextLines);
+    }
+
+    public boolean isAsynchronous() {
+        return asynchronous;
+    }
+
+    /**
+     * Hands the rendered review to a controller thread instead of posting it while the build holds its executor.
+     */
+    @DataBoundSetter
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    public boolean isRetryFailedPosts() {
+        return retryFailedPosts;
+    }
+
+    /**
+     * Keeps reviews that failed for a transient reason in the outbox and retries them, instead of failing the build.
+     */
+    @DataBoundSetter
+    public void setRetryFailedPosts(boolean retryFailedPosts) {
+        this.retryFailedPosts = retryFailedPosts;
+    }
+
+    public boolean isSupersedeStalePatchsets() {
+        return supersedeStalePatchsets;
+    }
+
+    /**
+     * Skips the review of a patchset once a newer patchset of the same change is published or in flight.
+     */
+    @DataBoundSetter
+    public void setSupersedeStalePatchsets(boolean supersedeStalePatchsets) {
+        this.supersedeStalePatchsets = supersedeStalePatchsets;
+    }
+
+    public boolean isSkipDuplicateReviews() {
+        return skipDuplicateReviews;
+    }
+
+    /**
+     * Does not post a review again when the same review was already posted to the patchset, e.g. by a rebuild.
+     */
+    @DataBoundSetter
+    public void setSkipDuplicateReviews(boolean skipDuplicateReviews) {
+        this.skipDuplicateReviews = skipDuplicateReviews;
+    }
+
+    public String getIssuesFile() {
+        return issuesFile;
+    }
+
+    /**
+     * Workspace file holding the issue diffs of the scan as one JSON record per line. When set, the issues are
+     * streamed and filtered on the agent instead of being taken from the Xcalscan action of the build.
+     */
+    @DataBoundSetter
+    public void setIssuesFile(String issuesFile) {
+        this.issuesFile = StringUtils.trimToNull(issuesFile);
+    }
+
+    public boolean isRenderOnAgent() {
+        return renderOnAgent;
+    }
+
+    /**
+     * Renders the review on the agent of the build instead of the controller, only the rendered review is sent back.
+     */
+    @DataBoundSetter
+    public void setRenderOnAgent(boolean renderOnAgent) {
+        this.renderOnAgent = renderOnAgent;
     }
 
     private String retrieveServerName(Map<String, String> envVars, GerritTrigger trigger) {
@@ -120,142 +330,321 @@ public class XcalscanGerritPublisher extends Notifier {
     @Override
     public boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener) throws IOException, InterruptedException {
         log.info("[perform] in XcalscanGerritPublisher");
-        listener.getLogger().println("------------------------------------------------------------------------");
-        listener.getLogger().println("[XcalscanGerritPublisher] processing Xcalscan gerrit review");
-        listener.getLogger().println("------------------------------------------------------------------------");
-        this.build = build;
-        this.listener = listener;
-        XcalscanAnalysisAction xcalscanAnalysisAction = null;
-
-        try {
-            Object xcalAction = build.getAllActions().stream().filter(action -> StringUtils.equalsIgnoreCase("hudson.plugins.xcal.action.XcalscanAnalysisAction", action.getClass().getName())).findFirst().orElse(null);
-            if (xcalAction != null) {
-                xcalscanAnalysisAction = CommonUtil.objectMapper.readValue(CommonUtil.writeObjectToJsonStringSilently(xcalAction), XcalscanAnalysisAction.class);
-                //listener.getLogger().println(CommonUtil.formatString("xcalscanAnalysisAction: {}", xcalscanAnalysisAction));
+        return new PublishContext(build, listener).publish();
+    }
+
+    /**
+     * Returns the Xcalscan action of the build. The action is used as is when it is an instance of this plugin's class,
+     * and converted without an intermediate JSON string when the scanner plugin loaded it through another class loader.
+     *
+     * @param withIssueDiffs whether a converted action needs the issues, false when they are read from the issues file
+     */
+    private XcalscanAnalysisAction findXcalscanAnalysisAction(AbstractBuild<?, ?> build, boolean withIssueDiffs) throws IOException {
+        XcalscanAnalysisAction xcalscanAnalysisAction = build.getAction(XcalscanAnalysisAction.class);
+        if (xcalscanAnalysisAction != null) {
+            return xcalscanAnalysisAction;
+        }
+        for (Action action : build.getAllActions()) {
+            if (StringUtils.equals(XcalscanAnalysisAction.class.getName(), action.getClass().getName())) {
+                return withIssueDiffs ? CommonUtil.convertObject(action, XcalscanAnalysisAction.class)
+                        : CommonUtil.convertObject(action, XcalscanAnalysisAction.class, "issueDiffs");
             }
-        } catch (Exception e) {
-            listener.getLogger().println(CommonUtil.formatString("Exception, {}: {}", e.getClass(), e.getMessage()));
-        }
-        //get Credential
-        StandardUsernamePasswordCredentials usernamePasswordCredentials = getCredentials(credential);
-
-        //get Gerrit change refs
-        Map<String, String> envParamMap = this.getEnvs();
-        //load revision info
-
-        GerritTrigger gerritTrigger = ParameterizedJobMixIn.getTrigger(build.getProject(), GerritTrigger.class);
-        if (gerritTrigger != null && xcalscanAnalysisAction != null) {
-            String gerritServerName = this.retrieveServerName(envParamMap, gerritTrigger);
-            String changeNumber = this.retrieveChangeNumber(envParamMap);
-            String patchSetNumber = this.retrievePatchSetNumber(envParamMap);
-
-            GerritService gerritService = new GerritService(gerritServerName, usernamePasswordCredentials);
-            this.postGerritReview(gerritService, changeNumber, patchSetNumber, xcalscanAnalysisAction, Locale.ENGLISH);
-            this.postGerritReview(gerritService, changeNumber, patchSetNumber, xcalscanAnalysisAction, Locale.SIMPLIFIED_CHINESE);
-        }
-        return true;
-    }
-
-    private void postGerritReview(GerritService gerritService, String changeNumber, String patchSetNumber, XcalscanAnalysisAction xcalscanAnalysisAction, Locale locale) throws AbortException {
-        String reviewMessage = Messages._XcalscanGerritPublisher_review_message_result(
-                xcalscanAnalysisAction.getProjectName(),
-                xcalscanAnalysisAction.getCommitId(),
-                xcalscanAnalysisAction.getRisk(),
-                xcalscanAnalysisAction.getIssuesCount(),
-                xcalscanAnalysisAction.getDefiniteCount(),
-                xcalscanAnalysisAction.getHighPriorityCount(),
-                xcalscanAnalysisAction.getMediumPriorityCount(),
-                xcalscanAnalysisAction.getLowPriorityCount(),
-                xcalscanAnalysisAction.getUrl()).toString(locale);
-        if (StringUtils.isNotBlank(xcalscanAnalysisAction.getBaselineCommitId())) {
-            reviewMessage = reviewMessage + "\n" + Messages._XcalscanGerritPublisher_review_message_dsr(
-                    xcalscanAnalysisAction.getNewIssueCount(),
-                    xcalscanAnalysisAction.getFixedIssueCount(),
-                    xcalscanAnalysisAction.getBaselineCommitId(),
-                    xcalscanAnalysisAction.getDsrUrl()).toString(locale);
-        }
-
-        if (xcalscanAnalysisAction.getIssueDiffs().size() > 0) {
-            List<IssueDiff> issueDiffs = xcalscanAnalysisAction.getIssueDiffs();
-            JSONObject ruleInfo = xcalscanAnalysisAction.getRuleInfo();
-            for (IssueDiff id : issueDiffs) {
-                // Get the necessary values
-                id.setPath(id.getIssue().
-                        getIssueAttributes().
-                        stream().
-                        filter(c -> c.getName().equals(VariableUtil.IssueAttributeName.NO_OF_TRACE_SET)).
-                        findFirst().get().getValue());
+        }
+        return null;
+    }
+
+    private ReviewRenderOptions getRenderOptions(ChangedLines changedLines) {
+        return ReviewRenderOptions.builder()
+                .locales(getReviewLocales())
+                .combineLocales(combineLocales)
+                .maxIssues(getMaxIssues())
+                .maxMessageBytes(getMaxMessageBytes())
+                .shardMessages(shardMessages)
+                .maxInlineComments(getMaxInlineComments())
+                .changedLines(changedLines)
+                .contextLines(contextLines)
+                .build();
+    }
+
+    /**
+     * State of one run of the publisher. A publisher instance is shared by every build of its job, and builds of the
+     * same job may run concurrently, so everything about the build being published lives here.
+     */
+    private final class PublishContext {
+        private final AbstractBuild<?, ?> build;
+        private final TaskListener listener;
+        private final PublishTimer timer = new PublishTimer();
+        private int issues;
+
+        private PublishContext(AbstractBuild<?, ?> build, TaskListener listener) {
+            this.build = build;
+            this.listener = listener;
+        }
+
+        private StandardUsernamePasswordCredentials getCredentials(String credential) {
+            log.info("[getCredentials] credential id: {}", credential);
+            return CredentialResolver.get().resolve(credential, this.build);
+        }
+
+        private Map<String, String> getEnvs() throws IOException, InterruptedException {
+            Map<String, String> envParamMap = new LinkedHashMap<>();
+            EnvVars envVars = this.build.getEnvironment(this.listener);
+            for (Map.Entry<String, String> entry : envVars.entrySet()) {
+                envParamMap.put(entry.getKey(), entry.getValue());
             }
+            return envParamMap;
+        }
 
-            List<IssueDiff> newIssues = issueDiffs.stream().filter(issueDiff -> org.apache.commons.lang.StringUtils.equalsIgnoreCase("NEW", issueDiff.getType())).collect(Collectors.toList());
-            List<IssueDiff> fixedIssues = issueDiffs.stream().filter(issueDiff -> org.apache.commons.lang.StringUtils.equalsIgnoreCase("FIXED", issueDiff.getType())).collect(Collectors.toList());
+        boolean publish() throws IOException, InterruptedException {
+            listener.getLogger().println("------------------------------------------------------------------------");
+            listener.getLogger().println("[XcalscanGerritPublisher] processing Xcalscan gerrit review");
+            listener.getLogger().println("------------------------------------------------------------------------");
+            XcalscanAnalysisAction xcalscanAnalysisAction = null;
 
-            //String[] header = {"Risk Level", "ID", "Type", "Rule & Standard", "File", "Line", "Function", "Variable", "Path", "Description"};
+            try {
+                xcalscanAnalysisAction = findXcalscanAnalysisAction(build, issuesFile == null);
+            } catch (Exception e) {
+                listener.getLogger().println(CommonUtil.formatString("Exception, {}: {}", e.getClass(), e.getMessage()));
+            }
+            if (issuesFile == null) {
+                checkIssueDiffsAvailable(xcalscanAnalysisAction);
+            }
+            timer.lap(PublishTimer.Phase.ACTION);
+            //get Credential
+            StandardUsernamePasswordCredentials usernamePasswordCredentials = getCredentials(credential);
+            timer.lap(PublishTimer.Phase.CREDENTIALS);
+
+            //get Gerrit change refs
+            Map<String, String> envParamMap = this.getEnvs();
+            //load revision info
+
+            GerritTrigger gerritTrigger = ParameterizedJobMixIn.getTrigger(build.getProject(), GerritTrigger.class);
+            if (gerritTrigger != null && xcalscanAnalysisAction != null) {
+                String gerritServerName = retrieveServerName(envParamMap, gerritTrigger);
+                String changeNumber = retrieveChangeNumber(envParamMap);
+                String patchSetNumber = retrievePatchSetNumber(envParamMap);
+                if (supersedeStalePatchsets && !ChangeCoalescer.get().register(gerritServerName, changeNumber, patchSetNumber)) {
+                    int newestPatchSet = ChangeCoalescer.get().getNewestPatchSet(gerritServerName, changeNumber);
+                    listener.getLogger().println(CommonUtil.formatString("Patchset {} superseded by patchset {}, review skipped", patchSetNumber, newestPatchSet));
+                    build.addOrReplaceAction(new XcalscanGerritReviewAction(XcalscanGerritReviewAction.Status.SUPERSEDED, changeNumber, patchSetNumber, null, new Date()));
+                    return true;
+                }
+                timer.lap(PublishTimer.Phase.ENVIRONMENT);
+                try {
+                    review(xcalscanAnalysisAction, usernamePasswordCredentials, envParamMap, gerritServerName, changeNumber, patchSetNumber);
+                } finally {
+                    listener.getLogger().println("Publish timing: " + timer.format());
+                    GerritServerMetrics.of(gerritServerName).recordPublish(timer, issues);
+                }
+            }
+            return true;
+        }
 
-            if (newIssues.size() > 0) {
-                //String[][] newIssueArr = generateIssueTable(newIssues, ruleInfo);
-                //TextTable newIssueTable = new TextTable(header, newIssueArr);
-                //reviewMessage = reviewMessage + "\n" + newIssueTable.toString();
+        private void review(XcalscanAnalysisAction xcalscanAnalysisAction, StandardUsernamePasswordCredentials usernamePasswordCredentials,
+                            Map<String, String> envParamMap, String gerritServerName, String changeNumber, String patchSetNumber) throws IOException, InterruptedException {
+            GerritService gerritService = GerritClientRegistry.get().getService(gerritServerName, credential, usernamePasswordCredentials);
+            timer.lap(PublishTimer.Phase.CLIENT);
+            if (probeServer) {
+                this.probeGerritServer(gerritService);
+                timer.lap(PublishTimer.Phase.PROBE);
+            }
+            ChangedLines changedLines = null;
+            if (changedLinesOnly) {
+                changedLines = this.getChangedLines(envParamMap);
+                timer.lap(PublishTimer.Phase.CHANGED_LINES);
+            }
+            ReviewRenderOptions renderOptions = getRenderOptions(changedLines);
+            Set<String> patchSetFiles = null;
+            if (inlineComments) {
+                patchSetFiles = this.listPatchSetFiles(gerritService, changeNumber, patchSetNumber);
+                timer.lap(PublishTimer.Phase.FILES);
+            }
+            RenderedReview rendered = renderOnAgent ? this.renderOnAgent(envParamMap, renderOptions, xcalscanAnalysisAction, patchSetFiles) : null;
+            if (rendered == null) {
+                IssueDiffStreamCallable.Result streamed = issuesFile != null ? this.streamIssueDiffs(envParamMap, renderOptions) : null;
+                if (issuesFile != null && streamed == null) {
+                    xcalscanAnalysisAction = findXcalscanAnalysisAction(build, true);
+                    checkIssueDiffsAvailable(xcalscanAnalysisAction);
+                }
+                rendered = renderOptions.render(xcalscanAnalysisAction, streamed, patchSetFiles);
+            }
+            issues = rendered.getSelected();
+            timer.lap(PublishTimer.Phase.RENDER);
+            if (rendered.getReviewInputs().size() > renderOptions.getUnshardedCount()) {
+                listener.getLogger().println(CommonUtil.formatString("Review split into {} messages", rendered.getReviewInputs().size()));
+            }
+            try {
+                this.postGerritReview(gerritService, changeNumber, patchSetNumber, rendered);
+            } finally {
+                timer.lap(PublishTimer.Phase.POST);
+            }
+        }
 
-                reviewMessage = reviewMessage + "\n" + Messages._XcalscanGerritPublisher_review_message_dsr_new(newIssues.size()).toString(locale);
-                reviewMessage = reviewMessage + "\n" + getDSRDetailString(locale, ruleInfo, newIssues);
+        /**
+         * Fails the publish step, rather than posting a review claiming the scan found no issue, when the issues of the
+         * action cannot be read back from the build directory.
+         */
+        private void checkIssueDiffsAvailable(XcalscanAnalysisAction xcalscanAnalysisAction) throws AbortException {
+            if (xcalscanAnalysisAction != null && xcalscanAnalysisAction.isIssueDiffsUnavailable()) {
+                throw new AbortException(CommonUtil.formatString(getLocalized("jenkins.plugin.error.xcalscan.issues.unavailable"), XcalscanAnalysisAction.PAYLOAD_FILE));
             }
-            if (fixedIssues.size() > 0) {
-                //String[][] fixedIssueArr = generateIssueTable(fixedIssues, ruleInfo);
-                //TextTable fixedIssueTable = new TextTable(header, fixedIssueArr);
-                //reviewMessage = reviewMessage + "\n" + fixedIssueTable.toString();
+        }
 
-                reviewMessage = reviewMessage + "\n" + Messages._XcalscanGerritPublisher_review_message_dsr_fixed(newIssues.size()).toString(locale);
-                reviewMessage = reviewMessage + "\n" + getDSRDetailString(locale, ruleInfo, fixedIssues);
+        private void probeGerritServer(GerritService gerritService) {
+            try {
+                GerritServerProbe.Result probe = GerritServerProbe.probe(gerritService, false);
+                listener.getLogger().println(CommonUtil.formatString("Gerrit server {} version: {}", gerritService.getServerName(), probe.getVersion()));
+                if (GerritServerProbe.DEBUG) {
+                    listener.getLogger().println(CommonUtil.formatString("[probe] latency: {} ms, cached: {}", probe.getLatencyMillis(), probe.isCached()));
+                }
+            } catch (RestApiException e) {
+                listener.getLogger().println(CommonUtil.formatString("Unable to probe Gerrit server, {}: {}", e.getClass(), e.getMessage()));
             }
         }
-        listener.getLogger().println(CommonUtil.formatString("[perform] reviewMessage: {}", reviewMessage));
-
-        ReviewResult reviewResult;
-        try {
-            reviewResult = gerritService.getRevision(changeNumber, patchSetNumber).review(new ReviewInput().message(reviewMessage));
-        } catch (RestApiException | NullPointerException | IllegalArgumentException | IllegalStateException e) {
-            listener.getLogger().println(CommonUtil.formatString("Unable to post review, {}: {}", e.getClass(), e.getMessage()));
-            throw new AbortException("Unable to post review: " + e.getMessage());
-        }
-        if (StringUtils.isEmpty(reviewResult.error)) {
-            listener.getLogger().println("Review has been sent");
-        } else {
-            listener.getLogger().println(CommonUtil.formatString("Unable to post review: {}", reviewResult.error));
-            throw new AbortException("Unable to post review: " + reviewResult.error);
-        }
-    }
-
-    private String getDSRDetailString(Locale locale, JSONObject ruleInfo, List<IssueDiff> issueDiffs) {
-        String reviewMessage = "";
-        for (int i = 0; i < issueDiffs.size(); i++) {
-            Map<String, String> severityMap = new HashMap<>();
-            severityMap.put("HIGH", "高");
-            severityMap.put("MEDIUM", "中");
-            severityMap.put("LOW", "低");
-            String ruleName;
-            String severity;
-            if (locale.equals(Locale.SIMPLIFIED_CHINESE)) {
-                ruleName = JSONObject.fromObject(ruleInfo.get(issueDiffs.get(i).getIssueCode())).get("rule_name_chi").toString();
-                severity = severityMap.get(issueDiffs.get(i).getSeverity());
-            } else {
-                ruleName = JSONObject.fromObject(ruleInfo.get(issueDiffs.get(i).getIssueCode())).get("rule_name_eng").toString();
-                severity = issueDiffs.get(i).getSeverity();
+
+        /**
+         * Diffs the patchset revision against its parent in the workspace. Returns null, so that no issue is filtered out,
+         * when the workspace has no usable repository.
+         */
+        private ChangedLines getChangedLines(Map<String, String> envVars) throws InterruptedException {
+            String revision = envVars.get(GerritTriggerParameters.GERRIT_PATCHSET_REVISION.name());
+            FilePath workspace = build.getWorkspace();
+            if (StringUtils.isBlank(revision) || workspace == null) {
+                listener.getLogger().println("Patchset revision or workspace not available, changed lines filter skipped");
+                return null;
+            }
+            try {
+                ChangedLines changedLines = workspace.act(new ChangedLinesCallable(revision));
+                listener.getLogger().println(CommonUtil.formatString("Patchset {} changed {} file(s)", revision, changedLines.getFileCount()));
+                return changedLines;
+            } catch (IOException e) {
+                listener.getLogger().println(CommonUtil.formatString("Unable to diff patchset, changed lines filter skipped, {}: {}", e.getClass(), e.getMessage()));
+                return null;
             }
-            reviewMessage = reviewMessage + Messages._XcalscanGerritPublisher_review_message_dsr_detail(
-                    severity,
-                    issueDiffs.get(i).getIssue().getSeq(),
-                    issueDiffs.get(i).getIssueCode(),
-                    ruleName,
-                    issueDiffs.get(i).getIssue().getRuleInformation().getRuleSetDisplayName().toUpperCase(),
-                    issueDiffs.get(i).getRelativePath(),
-                    String.valueOf(issueDiffs.get(i).getLineNo()),
-                    issueDiffs.get(i).getFunctionName(),
-                    issueDiffs.get(i).getVariableName(),
-                    issueDiffs.get(i).getPath()
-            ).toString(locale) + "\n";
-        }
-        return reviewMessage;
+        }
+
+        /**
+         * Streams the issue diffs of the issues file on the agent, filtered by the changed lines and reduced to the issues
+         * the review lists there. Returns null, so that the issues of the Xcalscan action are used, when the file is not
+         * available.
+         */
+        private IssueDiffStreamCallable.Result streamIssueDiffs(Map<String, String> envVars, ReviewRenderOptions renderOptions) throws InterruptedException {
+            FilePath workspace = build.getWorkspace();
+            if (workspace == null) {
+                listener.getLogger().println("Workspace not available, issues of the Xcalscan action used");
+                return null;
+            }
+            FilePath file = getIssuesFile(workspace, envVars);
+            try {
+                IssueDiffStreamCallable.Result result = file.act(new IssueDiffStreamCallable(renderOptions));
+                listener.getLogger().println(CommonUtil.formatString("Read {} issue record(s) from {}, {} selected, {} listed, {} invalid",
+                        result.getRecords(), file.getRemote(), result.getSelected(), result.getListed(), result.getInvalid()));
+                return result;
+            } catch (IOException e) {
+                listener.getLogger().println(CommonUtil.formatString("Unable to read {}, issues of the Xcalscan action used, {}: {}", file.getRemote(), e.getClass(), e.getMessage()));
+                return null;
+            }
+        }
+
+        /**
+         * Resolves the issues file against the workspace, the same way whether it is streamed from the controller or
+         * read by the agent rendering the review.
+         */
+        private FilePath getIssuesFile(FilePath workspace, Map<String, String> envVars) {
+            return workspace.child(Util.replaceMacro(issuesFile, envVars));
+        }
+
+        private Set<String> listPatchSetFiles(GerritService gerritService, String changeNumber, String patchSetNumber) {
+            try {
+                return gerritService.listFiles(changeNumber, patchSetNumber);
+            } catch (RestApiException e) {
+                listener.getLogger().println(CommonUtil.formatString("Unable to list patchset files, inline comments skipped, {}: {}", e.getClass(), e.getMessage()));
+                return null;
+            }
+        }
+
+        /**
+         * Renders the review on the agent of the build, streaming the issues file there when set. Returns null, so that
+         * the review is rendered on the controller, when the agent is not available or rendering failed there.
+         */
+        private RenderedReview renderOnAgent(Map<String, String> envVars, ReviewRenderOptions renderOptions, XcalscanAnalysisAction xcalscanAnalysisAction, Set<String> patchSetFiles) throws InterruptedException {
+            FilePath workspace = build.getWorkspace();
+            if (workspace == null || !workspace.isRemote()) {
+                listener.getLogger().println("Build agent not available, review rendered on the controller");
+                return null;
+            }
+            String file = issuesFile != null ? getIssuesFile(workspace, envVars).getRemote() : null;
+            try {
+                RenderReviewCallable.Result result = workspace.act(new RenderReviewCallable(renderOptions, xcalscanAnalysisAction.detach(file == null), file, patchSetFiles));
+                if (result.getRecords() >= 0) {
+                    listener.getLogger().println(CommonUtil.formatString("Read {} issue record(s) from {} on the agent, {} selected, {} invalid",
+                            result.getRecords(), file, result.getSelected(), result.getInvalid()));
+                }
+                listener.getLogger().println("Review rendered on the agent");
+                return result.readRenderedReview();
+            } catch (IOException e) {
+                listener.getLogger().println(CommonUtil.formatString("Unable to render review on the agent, rendering on the controller, {}: {}", e.getClass(), e.getMessage()));
+                return null;
+            }
+        }
+
+        private void postGerritReview(GerritService gerritService, String changeNumber, String patchSetNumber, RenderedReview rendered) throws AbortException {
+            ReviewJob job = ReviewJob.builder()
+                    .serverName(gerritService.getServerName())
+                    .credentialId(credential)
+                    .changeNumber(changeNumber)
+                    .patchSetNumber(patchSetNumber)
+                    .jobName(build.getParent().getFullName())
+                    .buildId(build.getExternalizableId())
+                    .retry(retryFailedPosts)
+                    .supersede(supersedeStalePatchsets)
+                    .digest(skipDuplicateReviews ? rendered.getDigest() : null)
+                    .pauseMillis(shardMessages ? GerritReviewDispatcher.SHARD_PAUSE_MILLIS : 0)
+                    .reviewInputs(rendered.getReviewInputs())
+                    .build();
+
+            if (asynchronous && GerritReviewDispatcher.get().submit(job)) {
+                listener.getLogger().println(CommonUtil.formatString("Review queued for change {}, patchset {}", changeNumber, patchSetNumber));
+                build.addOrReplaceAction(new XcalscanGerritReviewAction(XcalscanGerritReviewAction.Status.QUEUED, changeNumber, patchSetNumber, null, new Date()));
+                return;
+            }
+            try {
+                XcalscanGerritReviewAction.Status status = GerritReviewDispatcher.get().deliver(job, gerritService, listener.getLogger());
+                if (status != XcalscanGerritReviewAction.Status.SENT) {
+                    build.addOrReplaceAction(new XcalscanGerritReviewAction(status, changeNumber, patchSetNumber, null, new Date()));
+                }
+            } catch (RestApiException | NullPointerException | IllegalArgumentException | IllegalStateException e) {
+                listener.getLogger().println(CommonUtil.formatString("Unable to post review, {}: {}", e.getClass(), e.getMessage()));
+                if (GerritReviewDispatcher.get().retryLater(job, e)) {
+                    listener.getLogger().println(CommonUtil.formatString("Review queued for retry, {} review(s) pending", GerritReviewOutbox.get().getQueueDepth()));
+                    build.addOrReplaceAction(new XcalscanGerritReviewAction(XcalscanGerritReviewAction.Status.QUEUED, changeNumber, patchSetNumber, e.getMessage(), new Date()));
+                    return;
+                }
+                throw new AbortException("Unable to post review: " + e.getMessage());
+            }
+        }
+    }
+
+    List<Locale> getReviewLocales() {
+        return parseLocales(locales);
+    }
+
+    private static List<Locale> parseLocales(String locales) {
+        List<Locale> result = new ArrayList<>();
+        for (String token : StringUtils.split(StringUtils.defaultIfBlank(locales, DEFAULT_LOCALES), ", ")) {
+            try {
+                Locale locale = LocaleUtils.toLocale(token.trim());
+                if (!result.contains(locale)) {
+                    result.add(locale);
+                }
+            } catch (IllegalArgumentException e) {
+                log.warn("[getReviewLocales] ignore invalid locale: {}", token);
+            }
+        }
+        if (result.isEmpty()) {
+            result.add(Locale.ENGLISH);
+        }
+        return result;
     }
 
     @Override
@@ -267,6 +656,107 @@ public class XcalscanGerritPublisher extends Notifier {
     @Extension // This indicates to Jenkins that this is an implementation of an extension point.
     public static final class DescriptorImpl extends BuildStepDescriptor<Publisher> {
 
+        private double permitsPerSecond = GerritServerGuard.Limits.DEFAULT.getPermitsPerSecond();
+        private int burst = GerritServerGuard.Limits.DEFAULT.getBurst();
+        private int failureThreshold = GerritServerGuard.Limits.DEFAULT.getFailureThreshold();
+        private int openSeconds = GerritServerGuard.Limits.DEFAULT.getOpenSeconds();
+        private long slowCallMillis = GerritServerGuard.Limits.DEFAULT.getSlowCallMillis();
+        private long acquireTimeoutSeconds = GerritServerGuard.Limits.DEFAULT.getAcquireTimeoutSeconds();
+
+        public DescriptorImpl() {
+            load();
+            applyLimits();
+        }
+
+        @Override
+        public boolean configure(StaplerRequest req, JSONObject json) throws FormException {
+            req.bindJSON(this, json);
+            save();
+            applyLimits();
+            return true;
+        }
+
+        private void applyLimits() {
+            GerritServerGuard.setLimits(new GerritServerGuard.Limits(
+                    Math.max(0.1, permitsPerSecond),
+                    Math.max(1, burst),
+                    Math.max(1, failureThreshold),
+                    Math.max(0, openSeconds),
+                    Math.max(1, slowCallMillis),
+                    Math.max(0, acquireTimeoutSeconds)));
+        }
+
+        public double getPermitsPerSecond() {
+            return permitsPerSecond;
+        }
+
+        /**
+         * Sustained number of requests per second sent to each Gerrit server.
+         */
+        @DataBoundSetter
+        public void setPermitsPerSecond(double permitsPerSecond) {
+            this.permitsPerSecond = permitsPerSecond;
+        }
+
+        public int getBurst() {
+            return burst;
+        }
+
+        /**
+         * Number of requests a Gerrit server may receive at once after being idle.
+         */
+        @DataBoundSetter
+        public void setBurst(int burst) {
+            this.burst = burst;
+        }
+
+        public int getFailureThreshold() {
+            return failureThreshold;
+        }
+
+        /**
+         * Consecutive failures after which calls to a Gerrit server fail fast.
+         */
+        @DataBoundSetter
+        public void setFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+        }
+
+        public int getOpenSeconds() {
+            return openSeconds;
+        }
+
+        /**
+         * How long calls fail fast before a trial call is let through.
+         */
+        @DataBoundSetter
+        public void setOpenSeconds(int openSeconds) {
+            this.openSeconds = openSeconds;
+        }
+
+        public long getSlowCallMillis() {
+            return slowCallMillis;
+        }
+
+        /**
+         * Latency above which a call counts as a sign of an overloaded server.
+         */
+        @DataBoundSetter
+        public void setSlowCallMillis(long slowCallMillis) {
+            this.slowCallMillis = slowCallMillis;
+        }
+
+        public long getAcquireTimeoutSeconds() {
+            return acquireTimeoutSeconds;
+        }
+
+        /**
+         * How long a build waits for the rate limiter before giving up on the call.
+         */
+        @DataBoundSetter
+        public void setAcquireTimeoutSeconds(long acquireTimeoutSeconds) {
+            this.acquireTimeoutSeconds = acquireTimeoutSeconds;
+        }
 
         public String getGlobalToolConfigUrl() {
             return JenkinsRouter.getGlobalToolConfigUrl();
@@ -308,6 +798,14 @@ public class XcalscanGerritPublisher extends Notifier {
             return listBoxModel;
         }
 
+        public FormValidation doCheckMaxMessageBytes(@QueryParameter int value, @QueryParameter String locales, @QueryParameter boolean combineLocales) {
+            int minimum = ReviewRenderOptions.getMinMessageBytes(combineLocales ? parseLocales(locales).size() : 1);
+            if (value > 0 && value < minimum) {
+                return FormValidation.warning(Messages.XcalscanGerritPublisher_form_validation_warnings_maxMessageBytes(minimum));
+            }
+            return FormValidation.ok();
+        }
+
         public FormValidation doTestConnection(@QueryParameter String gerritServerName, @QueryParameter String credential) {
             FormValidation result;
             log.debug("[doTestConnection] gerritServerName: {}, credential: {}", gerritServerName, credential);
@@ -317,12 +815,15 @@ public class XcalscanGerritPublisher extends Notifier {
             }
 
             StandardUsernamePasswordCredentials usernamePasswordCredentials = this.getCredentials(credential);
-            GerritService gerritService = new GerritService(gerritServerName, usernamePasswordCredentials);
+            GerritService gerritService = GerritClientRegistry.get().getService(gerritServerName, credential, usernamePasswordCredentials);
             try {
                 log.debug("[doTestConnection] gerrit version");
-                String version = gerritService.getGerritApi().config().server().getVersion();
-                log.debug("[doTestConnection] gerrit version: {}", version);
-                if (StringUtils.isNotBlank(version)) {
+                GerritServerProbe.Result probe = GerritServerProbe.probe(gerritService, true);
+                String version = probe.getVersion();
+                log.debug("[doTestConnection] gerrit version: {}, latency: {} ms", version, probe.getLatencyMillis());
+                if (StringUtils.isNotBlank(version) && GerritServerProbe.DEBUG) {
+                    result = FormValidation.okWithMarkup(Messages.XcalscanGerritPublisher_form_validation_success_latency(version, probe.getLatencyMillis()));
+                } else if (StringUtils.isNotBlank(version)) {
                     result = FormValidation.okWithMarkup(Messages.XcalscanGerritPublisher_form_validation_success(version));
                 } else {
                     result = FormValidation.error(Messages.XcalscanGerritPublisher_form_validation_errors_empty_serverVersion());
@@ -335,23 +836,7 @@ public class XcalscanGerritPublisher extends Notifier {
         }
 
         private StandardUsernamePasswordCredentials getCredentials(String credential) {
-            StandardUsernamePasswordCredentials result = null;
-            if (StringUtils.isNotBlank(credential)) {
-                result = CredentialsMatchers.firstOrNull(
-                        CredentialsProvider.lookupCredentials(
-                                StandardUsernamePasswordCredentials.class,
-                                Jenkins.getInstanceOrNull(),
-                                ACL.SYSTEM,
-                                Collections.emptyList()
-                        ),
-                        CredentialsMatchers.allOf(
-                                CredentialsMatchers.always(),
-                                CredentialsMatchers.withId(credential)
-                        )
-
-                );
-            }
-            return result;
+            return CredentialResolver.get().resolve(credential);
         }
     }
 }
@@ -1,27 +1,49 @@
 package hudson.plugins.xcal.action;
 
 import hudson.model.InvisibleAction;
+import hudson.model.Run;
 import hudson.plugins.xcal.payload.IssueDiff;
+import hudson.plugins.xcal.util.CommonUtil;
+import jenkins.model.RunAction2;
 import lombok.*;
+import lombok.extern.slf4j.Slf4j;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
 
 import javax.annotation.CheckForNull;
+import java.io.*;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Persists in a build Xcalscan related information.
+ * <p>
+ * Once the action is attached to a build, the issue diffs move to the compressed {@value #PAYLOAD_FILE} in the build
+ * directory, and are read on demand and held through a soft reference, so loading the build history does not load
+ * every issue. The summary and the rule information stay in {@code build.xml}. When the side file is missing or
+ * unreadable, the issues are reported as unavailable rather than as an empty list.
+ * <p>
+ * This only applies to actions of this class. The action attached by the Xcalscan scanner plugin is a class of its
+ * own, which keeps its issues in {@code build.xml} and is only converted to this class when a review is published.
+ * Builds recorded before the side file existed are left as they are.
  */
+@Slf4j
 @EqualsAndHashCode(callSuper = true)
 @ExportedBean(defaultVisibility = 2)
-@Builder
-@AllArgsConstructor
 @NoArgsConstructor
 @Data
-public class XcalscanAnalysisAction extends InvisibleAction {
+public class XcalscanAnalysisAction extends InvisibleAction implements RunAction2, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final String PAYLOAD_FILE = "xcalscan-issues.json.gz";
+
     // Dashboard URL
     private String url;
     private String serverUrl;
@@ -53,10 +75,160 @@ public class XcalscanAnalysisAction extends InvisibleAction {
     private boolean isNew;
     private boolean isSkipped;
 
+    /**
+     * Only set until the issues are written to {@link #PAYLOAD_FILE}, and in builds recorded before it existed.
+     */
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     private List<IssueDiff> issueDiffs;
 
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
     JSONObject ruleInfo;
 
+    /**
+     * Whether the issue diffs were moved to {@link #PAYLOAD_FILE}.
+     */
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private boolean externalized;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private transient File payloadFile;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private transient SoftReference<IssuePayload> payload;
+
+    @Builder(toBuilder = true)
+    public XcalscanAnalysisAction(String url, String serverUrl, UUID projectUUID, String projectId, String projectName,
+                                  UUID scanTaskId, String status, String risk, String issuesCount, String fileCount,
+                                  String lineCount, String newIssueCount, String newIssuePathCount, String fixedIssueCount,
+                                  String fixedIssuePathCount, String commitId, String baselineCommitId,
+                                  String baselineScanTaskId, String dsrUrl, String dsrUrlFixed, String dsrUrlNew,
+                                  String scanTimeTotal, Date scanTime, String highPriorityCount, String mediumPriorityCount,
+                                  String lowPriorityCount, String definiteCount, boolean isNew, boolean isSkipped,
+                                  List<IssueDiff> issueDiffs, JSONObject ruleInfo) {
+        this.url = url;
+        this.serverUrl = serverUrl;
+        this.projectUUID = projectUUID;
+        this.projectId = projectId;
+        this.projectName = projectName;
+        this.scanTaskId = scanTaskId;
+        this.status = status;
+        this.risk = risk;
+        this.issuesCount = issuesCount;
+        this.fileCount = fileCount;
+        this.lineCount = lineCount;
+        this.newIssueCount = newIssueCount;
+        this.newIssuePathCount = newIssuePathCount;
+        this.fixedIssueCount = fixedIssueCount;
+        this.fixedIssuePathCount = fixedIssuePathCount;
+        this.commitId = commitId;
+        this.baselineCommitId = baselineCommitId;
+        this.baselineScanTaskId = baselineScanTaskId;
+        this.dsrUrl = dsrUrl;
+        this.dsrUrlFixed = dsrUrlFixed;
+        this.dsrUrlNew = dsrUrlNew;
+        this.scanTimeTotal = scanTimeTotal;
+        this.scanTime = scanTime;
+        this.highPriorityCount = highPriorityCount;
+        this.mediumPriorityCount = mediumPriorityCount;
+        this.lowPriorityCount = lowPriorityCount;
+        this.definiteCount = definiteCount;
+        this.isNew = isNew;
+        this.isSkipped = isSkipped;
+        this.issueDiffs = issueDiffs;
+        this.ruleInfo = ruleInfo;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> run) {
+        payloadFile = new File(run.getRootDir(), PAYLOAD_FILE);
+        externalize();
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> run) {
+        payloadFile = new File(run.getRootDir(), PAYLOAD_FILE);
+    }
+
+    /**
+     * Returns the issue diffs, or null when the scan recorded none or they cannot be read back from
+     * {@link #PAYLOAD_FILE}, see {@link #isIssueDiffsUnavailable()}.
+     */
+    public synchronized List<IssueDiff> getIssueDiffs() {
+        if (issueDiffs != null || payloadFile == null) {
+            return issueDiffs;
+        }
+        IssuePayload issuePayload = loadPayload();
+        return issuePayload != null ? issuePayload.getIssueDiffs() : null;
+    }
+
+    /**
+     * Returns whether the issue diffs were moved to {@link #PAYLOAD_FILE} and the file is missing or unreadable, so
+     * that a review does not claim the scan found no issue.
+     */
+    public synchronized boolean isIssueDiffsUnavailable() {
+        return issueDiffs == null && externalized && (payloadFile == null || loadPayload() == null);
+    }
+
+    /**
+     * Returns a copy detached from the build, optionally holding its issue diffs inline, e.g. to send it to an agent.
+     */
+    public XcalscanAnalysisAction detach(boolean withIssueDiffs) {
+        return toBuilder()
+                .issueDiffs(withIssueDiffs ? getIssueDiffs() : null)
+                .build();
+    }
+
+    /**
+     * Writes the inline issue diffs to the side file and drops them from the action.
+     */
+    private synchronized void externalize() {
+        if (issueDiffs == null) {
+            return;
+        }
+        IssuePayload issuePayload = new IssuePayload(issueDiffs);
+        File tmp = new File(payloadFile.getPath() + ".tmp");
+        try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            CommonUtil.objectMapper.writeValue(out, issuePayload);
+        } catch (IOException e) {
+            log.warn("[externalize] unable to write {}, issues kept in build.xml, {}: {}", payloadFile, e.getClass(), e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp.toPath(), payloadFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("[externalize] unable to write {}, issues kept in build.xml, {}: {}", payloadFile, e.getClass(), e.getMessage());
+            return;
+        }
+        payload = new SoftReference<>(issuePayload);
+        externalized = true;
+        issueDiffs = null;
+    }
+
+    private IssuePayload loadPayload() {
+        IssuePayload issuePayload = payload != null ? payload.get() : null;
+        if (issuePayload != null || !payloadFile.isFile()) {
+            return issuePayload;
+        }
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(payloadFile)))) {
+            issuePayload = CommonUtil.objectMapper.readValue(in, IssuePayload.class);
+            payload = new SoftReference<>(issuePayload);
+        } catch (IOException e) {
+            log.warn("[loadPayload] unable to read {}, {}: {}", payloadFile, e.getClass(), e.getMessage());
+        }
+        return issuePayload;
+    }
+
 
     public Double getDensity() {
         return Double.parseDouble(issuesCount) / Double.parseDouble(lineCount);
@@ -95,4 +267,14 @@ public class XcalscanAnalysisAction extends InvisibleAction {
     public String getUrl() {
         return url;
     }
+
+    /**
+     * Content of {@link #PAYLOAD_FILE}.
+     */
+    @Getter
+    @AllArgsConstructor
+    @NoArgsConstructor
+    static class IssuePayload {
+        List<IssueDiff> issueDiffs;
+    }
 }
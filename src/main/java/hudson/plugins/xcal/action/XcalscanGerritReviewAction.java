@@ -0,0 +1,51 @@
+package hudson.plugins.xcal.action;
+
+import hudson.model.InvisibleAction;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.Date;
+
+/**
+ * Records on a build how its Gerrit review was delivered, for reviews posted after the build step returned.
+ */
+@EqualsAndHashCode(callSuper = false)
+@ExportedBean(defaultVisibility = 2)
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class XcalscanGerritReviewAction extends InvisibleAction {
+
+    public enum Status {
+        QUEUED,
+        SENT,
+        FAILED,
+        SUPERSEDED,
+        DUPLICATE
+    }
+
+    private Status status;
+    private String changeNumber;
+    private String patchSetNumber;
+    private String message;
+    private Date timestamp;
+
+    @Exported
+    public Status getStatus() {
+        return status;
+    }
+
+    @Exported
+    public String getMessage() {
+        return message;
+    }
+
+    @Exported
+    public Date getTimestamp() {
+        return timestamp;
+    }
+}
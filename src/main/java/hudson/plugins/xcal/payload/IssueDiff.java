@@ -10,6 +10,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.io.Serializable;
 import java.util.Date;
 import java.util.UUID;
 
@@ -17,7 +18,9 @@ import java.util.UUID;
 @Builder
 @AllArgsConstructor
 @NoArgsConstructor
-public class IssueDiff {
+public class IssueDiff implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     UUID id;
     UUID scanTaskId;
     UUID baselineScanTaskId;
@@ -5,19 +5,18 @@
 
 package hudson.plugins.xcal.payload;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import hudson.plugins.xcal.util.VariableUtil;
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.*;
 
+import java.io.Serializable;
 import java.util.*;
 
 @Data
-@Builder
-@AllArgsConstructor
 @NoArgsConstructor
-public class IssueDto {
+public class IssueDto implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     UUID id;
     String issueKey;
     String seq;
@@ -35,9 +34,7 @@ public class IssueDto {
     UUID scanFileId;
     String relativePath;
     String scanFilePath;
-    @Builder.Default
     Integer lineNo = 0;
-    @Builder.Default
     Integer columnNo = 0;
     String functionName;
     String variableName;
@@ -53,18 +50,103 @@ public class IssueDto {
     Date createdOn;
     String modifiedBy;
     Date modifiedOn;
-    @Builder.Default
     List<IssueTrace> issueTraces = new ArrayList<>();
-    @Builder.Default
     List<IssueTraceInfo> issueTraceInfos = new ArrayList<>();
-    @Builder.Default
+    /**
+     * Only replaced as a whole through {@link #setIssueAttributes}, so that {@link #attributeIndex} stays up to date.
+     */
     List<IssueAttribute> issueAttributes = new ArrayList<>();
 
+    /**
+     * First attribute of each name, built on the first lookup after the attribute list was set.
+     */
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private transient EnumMap<VariableUtil.IssueAttributeName, IssueAttribute> attributeIndex;
+
+    @Builder
+    public IssueDto(UUID id, String issueKey, String seq, RuleInformation ruleInformation, String issueCategory,
+                    String ruleSet, String vulnerable, String certainty, String issueCode, String issueName,
+                    String critical, String severity, String likelihood, String remediationCost, UUID scanFileId,
+                    String relativePath, String scanFilePath, Integer lineNo, Integer columnNo, String functionName,
+                    String variableName, String complexity, Double complexityRate, String checksum, String message,
+                    String ignored, String status, String action, AssignTo assignTo, String createdBy, Date createdOn,
+                    String modifiedBy, Date modifiedOn, List<IssueTrace> issueTraces, List<IssueTraceInfo> issueTraceInfos,
+                    List<IssueAttribute> issueAttributes) {
+        this.id = id;
+        this.issueKey = issueKey;
+        this.seq = seq;
+        this.ruleInformation = ruleInformation;
+        this.issueCategory = issueCategory;
+        this.ruleSet = ruleSet;
+        this.vulnerable = vulnerable;
+        this.certainty = certainty;
+        this.issueCode = issueCode;
+        this.issueName = issueName;
+        this.critical = critical;
+        this.severity = severity;
+        this.likelihood = likelihood;
+        this.remediationCost = remediationCost;
+        this.scanFileId = scanFileId;
+        this.relativePath = relativePath;
+        this.scanFilePath = scanFilePath;
+        this.lineNo = lineNo;
+        this.columnNo = columnNo;
+        this.functionName = functionName;
+        this.variableName = variableName;
+        this.complexity = complexity;
+        this.complexityRate = complexityRate;
+        this.checksum = checksum;
+        this.message = message;
+        this.ignored = ignored;
+        this.status = status;
+        this.action = action;
+        this.assignTo = assignTo;
+        this.createdBy = createdBy;
+        this.createdOn = createdOn;
+        this.modifiedBy = modifiedBy;
+        this.modifiedOn = modifiedOn;
+        this.issueTraces = issueTraces;
+        this.issueTraceInfos = issueTraceInfos;
+        setIssueAttributes(issueAttributes);
+    }
+
+    /**
+     * Returns a read-only view of the attributes, as changing them in place would leave the index stale.
+     */
+    public List<IssueAttribute> getIssueAttributes() {
+        return issueAttributes != null ? Collections.unmodifiableList(issueAttributes) : null;
+    }
+
+    /**
+     * Replaces the attributes with a copy of the list, so that the index cannot go stale when the caller changes it.
+     */
+    public void setIssueAttributes(List<IssueAttribute> issueAttributes) {
+        this.issueAttributes = issueAttributes != null ? new ArrayList<>(issueAttributes) : null;
+        this.attributeIndex = null;
+    }
+
+    /**
+     * Defaults of the values not set on the builder, as the fields initialize them for the no-args constructor.
+     */
+    public static class IssueDtoBuilder {
+        private Integer lineNo = 0;
+        private Integer columnNo = 0;
+        private List<IssueTrace> issueTraces = new ArrayList<>();
+        private List<IssueTraceInfo> issueTraceInfos = new ArrayList<>();
+        private List<IssueAttribute> issueAttributes = new ArrayList<>();
+    }
+
     @Data
     @Builder
     @AllArgsConstructor
     @NoArgsConstructor
-    public static class IssueTrace {
+    public static class IssueTrace implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         UUID id;
         Integer seq;
         UUID scanFileId;
@@ -88,7 +170,9 @@ public class IssueDto {
     @Builder
     @AllArgsConstructor
     @NoArgsConstructor
-    public static class IssueTraceInfo {
+    public static class IssueTraceInfo implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         String id; // checksum
         Integer noOfTrace;
         String message;
@@ -104,7 +188,9 @@ public class IssueDto {
     @Builder
     @AllArgsConstructor
     @NoArgsConstructor
-    public static class AssignTo {
+    public static class AssignTo implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         UUID id;
         String displayName;
         String email;
@@ -114,7 +200,9 @@ public class IssueDto {
     @Builder
     @AllArgsConstructor
     @NoArgsConstructor
-    public static class RuleInformation {
+    public static class RuleInformation implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         UUID id;
         String ruleSet;
         String ruleSetDisplayName;
@@ -140,12 +228,38 @@ public class IssueDto {
     @Builder
     @AllArgsConstructor
     @NoArgsConstructor
-    public static class IssueAttribute {
+    public static class IssueAttribute implements Serializable {
+        private static final long serialVersionUID = 1L;
+
         VariableUtil.IssueAttributeName name;
         String value;
     }
 
     public Optional<IssueAttribute> getFirstAttribute(VariableUtil.IssueAttributeName attribute) {
-        return this.getIssueAttributes().stream().filter(issueAttribute -> attribute == issueAttribute.name).findFirst();
+        return Optional.ofNullable(getAttributeIndex().get(attribute));
+    }
+
+    /**
+     * Returns the value of the first attribute with the name, or null when the issue has no such attribute.
+     */
+    public String getAttributeValue(VariableUtil.IssueAttributeName attribute) {
+        IssueAttribute issueAttribute = getAttributeIndex().get(attribute);
+        return issueAttribute != null ? issueAttribute.value : null;
+    }
+
+    private EnumMap<VariableUtil.IssueAttributeName, IssueAttribute> getAttributeIndex() {
+        EnumMap<VariableUtil.IssueAttributeName, IssueAttribute> index = attributeIndex;
+        if (index == null) {
+            index = new EnumMap<>(VariableUtil.IssueAttributeName.class);
+            if (issueAttributes != null) {
+                for (IssueAttribute issueAttribute : issueAttributes) {
+                    if (issueAttribute != null && issueAttribute.name != null) {
+                        index.putIfAbsent(issueAttribute.name, issueAttribute);
+                    }
+                }
+            }
+            attributeIndex = index;
+        }
+        return index;
     }
 }
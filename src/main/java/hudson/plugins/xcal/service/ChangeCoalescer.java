@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks, per Gerrit change, the newest patchset whose review was published or is in flight, so reviews of
+ * older patchsets can be dropped instead of being rendered and posted after a newer one.
+ */
+public final class ChangeCoalescer {
+
+    private static final ChangeCoalescer INSTANCE = new ChangeCoalescer();
+
+    private final Cache<String, Integer> newestPatchSets = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterAccess(7, TimeUnit.DAYS)
+            .build();
+
+    private ChangeCoalescer() {
+    }
+
+    public static ChangeCoalescer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Marks a review of the patchset as in flight.
+     *
+     * @return false when a newer patchset of the change was already published or is in flight
+     */
+    public boolean register(String serverName, String changeNumber, String patchSetNumber) {
+        int patchSet = NumberUtils.toInt(patchSetNumber);
+        int newest = newestPatchSets.asMap().merge(key(serverName, changeNumber), patchSet, Math::max);
+        return patchSet >= newest;
+    }
+
+    /**
+     * Returns the newest patchset registered for the change, or 0 when there is none.
+     */
+    public int getNewestPatchSet(String serverName, String changeNumber) {
+        Integer newest = newestPatchSets.getIfPresent(key(serverName, changeNumber));
+        return newest != null ? newest : 0;
+    }
+
+    public boolean isSuperseded(String serverName, String changeNumber, String patchSetNumber) {
+        return NumberUtils.toInt(patchSetNumber) < getNewestPatchSet(serverName, changeNumber);
+    }
+
+    public void invalidateAll() {
+        newestPatchSets.invalidateAll();
+    }
+
+    private static String key(String serverName, String changeNumber) {
+        return serverName + '\n' + changeNumber;
+    }
+}
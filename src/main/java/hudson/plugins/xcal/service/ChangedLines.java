@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import hudson.plugins.xcal.payload.IssueDiff;
+import hudson.plugins.xcal.util.CommonUtil;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * The lines a patchset changed, per file. New issues are matched against the lines of the patchset revision,
+ * fixed issues against the lines of its parent, as that is where their line numbers point to.
+ */
+public class ChangedLines implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Path to flattened, 1-based {@code [first, last]} line pairs. An empty range ({@code last < first}) marks a pure deletion.
+     */
+    private final Map<String, int[]> newLines;
+    private final Map<String, int[]> oldLines;
+    private transient Map<String, String> newIndex;
+    private transient Map<String, String> oldIndex;
+
+    public ChangedLines(Map<String, int[]> newLines, Map<String, int[]> oldLines) {
+        this.newLines = newLines;
+        this.oldLines = oldLines;
+    }
+
+    public int getFileCount() {
+        return newLines.size();
+    }
+
+    /**
+     * Returns whether the issue lies inside a changed hunk, or within {@code contextLines} lines of one. A path that is
+     * only a suffix of several changed files, e.g. {@code foo.c} with {@code a/foo.c} and {@code b/foo.c} both changed,
+     * matches none of them rather than whichever one the index met first.
+     */
+    public boolean contains(IssueDiff issueDiff, int contextLines) {
+        boolean fixed = StringUtils.equalsIgnoreCase("FIXED", issueDiff.getType());
+        if (fixed && oldIndex == null) {
+            oldIndex = CommonUtil.indexPathSuffixes(oldLines.keySet());
+        } else if (!fixed && newIndex == null) {
+            newIndex = CommonUtil.indexPathSuffixes(newLines.keySet());
+        }
+        Map<String, int[]> lines = fixed ? oldLines : newLines;
+        String file = (fixed ? oldIndex : newIndex).get(StringUtils.removeStart(issueDiff.getRelativePath(), "/"));
+        if (file == null || issueDiff.getLineNo() == null) {
+            return false;
+        }
+        int lineNo = issueDiff.getLineNo();
+        int[] ranges = lines.get(file);
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (lineNo >= ranges[i] - contextLines && lineNo <= ranges[i + 1] + contextLines) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Diffs a patchset revision against its first parent in the workspace repository, where the checkout lives,
+ * and returns the changed lines of every file. No Gerrit REST call is involved.
+ */
+public class ChangedLinesCallable extends MasterToSlaveFileCallable<ChangedLines> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String revision;
+
+    public ChangedLinesCallable(String revision) {
+        this.revision = revision;
+    }
+
+    @Override
+    public ChangedLines invoke(File workspace, VirtualChannel channel) throws IOException {
+        FileRepositoryBuilder repositoryBuilder = new FileRepositoryBuilder().readEnvironment().findGitDir(workspace);
+        if (repositoryBuilder.getGitDir() == null) {
+            throw new IOException("No git repository found in " + workspace);
+        }
+        try (Repository repository = repositoryBuilder.build();
+             RevWalk revWalk = new RevWalk(repository);
+             DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            ObjectId revisionId = repository.resolve(revision);
+            if (revisionId == null) {
+                throw new IOException("Revision " + revision + " not found in " + repository.getDirectory());
+            }
+            RevCommit commit = revWalk.parseCommit(revisionId);
+            RevTree parentTree = commit.getParentCount() > 0 ? revWalk.parseCommit(commit.getParent(0)).getTree() : null;
+
+            diffFormatter.setRepository(repository);
+            diffFormatter.setDiffComparator(RawTextComparator.DEFAULT);
+            diffFormatter.setDetectRenames(true);
+            Map<String, int[]> newLines = new HashMap<>();
+            Map<String, int[]> oldLines = new HashMap<>();
+            for (DiffEntry entry : diffFormatter.scan(parentTree, commit.getTree())) {
+                List<Edit> edits = diffFormatter.toFileHeader(entry).toEditList();
+                int[] newRanges = new int[edits.size() * 2];
+                int[] oldRanges = new int[edits.size() * 2];
+                for (int i = 0; i < edits.size(); i++) {
+                    Edit edit = edits.get(i);
+                    // Edit positions are 0-based and end exclusive, ranges are 1-based and end inclusive
+                    newRanges[i * 2] = edit.getBeginB() + 1;
+                    newRanges[i * 2 + 1] = edit.getEndB();
+                    oldRanges[i * 2] = edit.getBeginA() + 1;
+                    oldRanges[i * 2 + 1] = edit.getEndA();
+                }
+                if (entry.getChangeType() != DiffEntry.ChangeType.DELETE) {
+                    newLines.put(entry.getNewPath(), newRanges);
+                }
+                if (entry.getChangeType() != DiffEntry.ChangeType.ADD) {
+                    oldLines.put(entry.getOldPath(), oldRanges);
+                }
+            }
+            return new ChangedLines(newLines, oldLines);
+        }
+    }
+}
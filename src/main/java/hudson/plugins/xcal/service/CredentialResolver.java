@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.cloudbees.plugins.credentials.CredentialsMatchers;
+import com.cloudbees.plugins.credentials.Credentials;
+import com.cloudbees.plugins.credentials.CredentialsProvider;
+import com.cloudbees.plugins.credentials.CredentialsStore;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.Run;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves username/password credentials by ID without scanning every credential of Jenkins on each lookup.
+ * <p>
+ * Global credentials are indexed by ID with a single scan, and the credential a job resolves for an ID is cached
+ * per job. Saving the global credentials store updates the index entries of the credentials added, changed or removed
+ * and drops what jobs resolved for their IDs; saving the credentials of a folder drops what the jobs of the folder
+ * resolved. Entries also expire after {@link #TTL_SECONDS}, for credentials providers that do not save through Jenkins.
+ */
+@Slf4j
+public final class CredentialResolver {
+
+    /**
+     * Seconds a resolved credential is kept, configurable with {@code -Dhudson.plugins.xcal.service.CredentialResolver.ttlSeconds}.
+     */
+    public static final int TTL_SECONDS = Integer.getInteger(CredentialResolver.class.getName() + ".ttlSeconds", 300);
+
+    private static final CredentialResolver INSTANCE = new CredentialResolver();
+
+    private final Cache<String, Optional<StandardUsernamePasswordCredentials>> jobCredentials = CacheBuilder.newBuilder()
+            .maximumSize(10000)
+            .expireAfterWrite(TTL_SECONDS, TimeUnit.SECONDS)
+            .build();
+    private volatile GlobalIndex globalIndex;
+
+    private CredentialResolver() {
+    }
+
+    public static CredentialResolver get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the global credential with the ID, as seen by the system, or null when there is none.
+     */
+    public StandardUsernamePasswordCredentials resolve(String credentialId) {
+        if (StringUtils.isBlank(credentialId)) {
+            return null;
+        }
+        GlobalIndex index = globalIndex;
+        if (index == null || index.isExpired()) {
+            index = new GlobalIndex(CredentialsProvider.lookupCredentials(StandardUsernamePasswordCredentials.class,
+                    Jenkins.getInstanceOrNull(), ACL.SYSTEM, Collections.emptyList()), getSystemCredentials());
+            globalIndex = index;
+            log.debug("[resolve] indexed {} global credential(s)", index.credentials.size());
+        }
+        return index.credentials.get(credentialId);
+    }
+
+    /**
+     * Returns the credential with the ID in the context of a build, or null when the build cannot use one. The usage of
+     * the credential is tracked for the build, as {@link CredentialsProvider#findCredentialById} does.
+     */
+    public StandardUsernamePasswordCredentials resolve(String credentialId, Run<?, ?> run) {
+        if (StringUtils.isBlank(credentialId)) {
+            return null;
+        }
+        // IDs referring to build parameters depend on the build
+        if (credentialId.contains("${")) {
+            return CredentialsProvider.findCredentialById(credentialId, StandardUsernamePasswordCredentials.class, run);
+        }
+        try {
+            Optional<StandardUsernamePasswordCredentials> credentials = jobCredentials.get(run.getParent().getFullName() + '\n' + credentialId,
+                    () -> Optional.ofNullable(CredentialsProvider.findCredentialById(credentialId, StandardUsernamePasswordCredentials.class, run)));
+            return credentials.map(found -> CredentialsProvider.track(run, found)).orElse(null);
+        } catch (ExecutionException e) {
+            log.warn("[resolve] unable to resolve credential {}, {}: {}", credentialId, e.getCause().getClass(), e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the credential with the ID as seen by the job, e.g. once the build that needed it was deleted, or null
+     * when the job cannot use one. Credentials of the folders of the job take precedence over global ones.
+     */
+    public StandardUsernamePasswordCredentials resolve(String credentialId, Item item) {
+        if (StringUtils.isBlank(credentialId)) {
+            return null;
+        }
+        try {
+            return jobCredentials.get(item.getFullName() + '\n' + credentialId, () -> Optional.ofNullable(CredentialsMatchers.firstOrNull(
+                    CredentialsProvider.lookupCredentials(StandardUsernamePasswordCredentials.class, item, ACL.SYSTEM, Collections.emptyList()),
+                    CredentialsMatchers.withId(credentialId)))).orElse(null);
+        } catch (ExecutionException e) {
+            log.warn("[resolve] unable to resolve credential {}, {}: {}", credentialId, e.getCause().getClass(), e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    public void invalidateAll() {
+        globalIndex = null;
+        jobCredentials.invalidateAll();
+    }
+
+    /**
+     * Brings the index up to date with the global credentials store that was just saved, replacing the entries of the
+     * credentials added or changed and removing the entries of the credentials removed. Jobs may resolve these IDs
+     * to global credentials, so what they resolved for them is dropped too.
+     */
+    void onSystemCredentialsSaved() {
+        Map<String, StandardUsernamePasswordCredentials> saved = getSystemCredentials();
+        Set<String> changed = new HashSet<>();
+        GlobalIndex index = globalIndex;
+        if (index == null) {
+            changed.addAll(saved.keySet());
+        } else {
+            changed.addAll(index.update(saved));
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        log.debug("[onSystemCredentialsSaved] {} global credential(s) added, changed or removed", changed.size());
+        jobCredentials.asMap().keySet().removeIf(key -> changed.contains(StringUtils.substringAfterLast(key, "\n")));
+    }
+
+    /**
+     * Drops what the jobs inside the folder resolved, once the credentials of the folder were saved.
+     */
+    void onFolderCredentialsSaved(ItemGroup<?> folder) {
+        String prefix = folder.getFullName() + '/';
+        log.debug("[onFolderCredentialsSaved] credentials of {} saved", folder.getFullName());
+        jobCredentials.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    private static Map<String, StandardUsernamePasswordCredentials> getSystemCredentials() {
+        Map<String, StandardUsernamePasswordCredentials> credentials = new HashMap<>();
+        for (Credentials credential : SystemCredentialsProvider.getInstance().getCredentials()) {
+            if (credential instanceof StandardUsernamePasswordCredentials) {
+                credentials.putIfAbsent(((StandardUsernamePasswordCredentials) credential).getId(), (StandardUsernamePasswordCredentials) credential);
+            }
+        }
+        return credentials;
+    }
+
+    private static final class GlobalIndex {
+        private final Map<String, StandardUsernamePasswordCredentials> credentials = new ConcurrentHashMap<>();
+        /**
+         * IDs of the indexed credentials held by the global credentials store, rather than by other providers.
+         */
+        private Set<String> systemIds;
+        private final long expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(TTL_SECONDS);
+
+        private GlobalIndex(List<StandardUsernamePasswordCredentials> credentials, Map<String, StandardUsernamePasswordCredentials> systemCredentials) {
+            for (StandardUsernamePasswordCredentials credential : credentials) {
+                this.credentials.putIfAbsent(credential.getId(), credential);
+            }
+            this.systemIds = new HashSet<>(systemCredentials.keySet());
+        }
+
+        /**
+         * Replaces the credentials of the global store with the saved ones, returning the IDs added, changed or removed.
+         * The store replaces a credential with a new instance when it is updated, so unchanged ones are the same instance.
+         */
+        private synchronized Set<String> update(Map<String, StandardUsernamePasswordCredentials> saved) {
+            Set<String> changed = new HashSet<>();
+            for (String id : systemIds) {
+                if (!saved.containsKey(id)) {
+                    credentials.remove(id);
+                    changed.add(id);
+                }
+            }
+            for (Map.Entry<String, StandardUsernamePasswordCredentials> entry : saved.entrySet()) {
+                if (credentials.put(entry.getKey(), entry.getValue()) != entry.getValue()) {
+                    changed.add(entry.getKey());
+                }
+            }
+            systemIds = new HashSet<>(saved.keySet());
+            return changed;
+        }
+
+        private boolean isExpired() {
+            return System.nanoTime() - expiresAt > 0;
+        }
+    }
+
+    /**
+     * Updates the resolved credentials once a credentials store is saved: the global store, or a folder holding folder
+     * credentials. Other saves of Jenkins, folders and views leave them alone. User credentials are ignored, as
+     * credentials are only resolved in the context of jobs.
+     */
+    @Extension
+    public static class CredentialsStoreListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof SystemCredentialsProvider) {
+                get().onSystemCredentialsSaved();
+            } else if (o instanceof ItemGroup && !(o instanceof Jenkins) && hasCredentialsStore((ItemGroup<?>) o)) {
+                get().onFolderCredentialsSaved((ItemGroup<?>) o);
+            }
+        }
+
+        private static boolean hasCredentialsStore(ItemGroup<?> folder) {
+            for (CredentialsStore store : CredentialsProvider.lookupStores(folder)) {
+                if (store.getContext() == folder) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
+import com.sonyericsson.hudson.plugins.gerrit.trigger.PluginImpl;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.listeners.SaveableListener;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps one warm {@link GerritService} per Gerrit server and credential ID, so builds and executors share
+ * the underlying REST client and its keep-alive connections instead of reconnecting for every publish.
+ * <p>
+ * A pooled client is replaced as soon as the Gerrit Trigger configuration or the credential it was built from changes.
+ */
+@Slf4j
+public final class GerritClientRegistry {
+
+    private static final GerritClientRegistry INSTANCE = new GerritClientRegistry();
+
+    private final ConcurrentMap<String, GerritService> services = new ConcurrentHashMap<>();
+
+    private GerritClientRegistry() {
+    }
+
+    public static GerritClientRegistry get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the pooled client for the server and credential, creating or refreshing it when needed.
+     *
+     * @param serverName   Gerrit Trigger server name
+     * @param credentialId ID of the credential, blank when the Gerrit Trigger HTTP credentials are used
+     * @param credentials  the resolved credential, may be null
+     */
+    public GerritService getService(String serverName, String credentialId, UsernamePasswordCredentials credentials) {
+        String fingerprint = GerritService.fingerprint(serverName, credentials);
+        return services.compute(key(serverName, credentialId), (key, current) -> {
+            if (current != null && StringUtils.equals(current.getFingerprint(), fingerprint)) {
+                return current;
+            }
+            log.debug("[getService] {} client for serverName: {}, credentialId: {}", current == null ? "creating" : "refreshing", serverName, credentialId);
+            return new GerritService(serverName, credentials);
+        });
+    }
+
+    public void invalidateAll() {
+        services.clear();
+    }
+
+    public int size() {
+        return services.size();
+    }
+
+    private static String key(String serverName, String credentialId) {
+        return serverName + '\n' + StringUtils.defaultString(credentialId);
+    }
+
+    /**
+     * Drops every pooled client once the Gerrit Trigger configuration is saved.
+     */
+    @Extension
+    public static class GerritConfigListener extends SaveableListener {
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof PluginImpl) {
+                log.debug("[onChange] Gerrit Trigger configuration saved, dropping {} pooled client(s)", get().size());
+                get().invalidateAll();
+                GerritServerProbe.invalidateAll();
+            }
+        }
+    }
+}
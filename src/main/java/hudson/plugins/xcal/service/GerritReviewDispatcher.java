@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.extensions.api.changes.ReviewResult;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import hudson.model.Item;
+import hudson.model.Run;
+import hudson.plugins.xcal.action.XcalscanGerritReviewAction;
+import hudson.plugins.xcal.util.CommonUtil;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static hudson.plugins.xcal.util.Localization.getLocalized;
+
+/**
+ * Posts rendered reviews to Gerrit. Reviews are either delivered on the calling thread, or handed to a bounded
+ * pool of controller threads so the build can release its executor without waiting for Gerrit.
+ */
+@Slf4j
+public final class GerritReviewDispatcher {
+
+    /**
+     * Number of controller threads posting reviews, configurable with {@code -Dhudson.plugins.xcal.service.GerritReviewDispatcher.poolSize}.
+     */
+    public static final int POOL_SIZE = Integer.getInteger(GerritReviewDispatcher.class.getName() + ".poolSize", 4);
+
+    /**
+     * Number of reviews waiting for a thread, configurable with {@code -Dhudson.plugins.xcal.service.GerritReviewDispatcher.queueCapacity}.
+     */
+    public static final int QUEUE_CAPACITY = Integer.getInteger(GerritReviewDispatcher.class.getName() + ".queueCapacity", 500);
+
+    /**
+     * Pause between the messages of a review split into several messages, configurable with {@code -Dhudson.plugins.xcal.service.GerritReviewDispatcher.shardPauseMillis}.
+     */
+    public static final long SHARD_PAUSE_MILLIS = Long.getLong(GerritReviewDispatcher.class.getName() + ".shardPauseMillis", 1000L);
+
+    private static final GerritReviewDispatcher INSTANCE = new GerritReviewDispatcher();
+
+    private final ThreadPoolExecutor executor;
+
+    private GerritReviewDispatcher() {
+        executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                new NamingThreadFactory(new DaemonThreadFactory(), "Xcalscan Gerrit review"));
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static GerritReviewDispatcher get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues the job for delivery on a controller thread.
+     *
+     * @return false when the queue is full and the caller should deliver the job itself
+     */
+    public boolean submit(ReviewJob job) {
+        try {
+            executor.execute(() -> deliverQueued(job));
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.warn("[submit] review queue full, change: {}, patchset: {}", job.getChangeNumber(), job.getPatchSetNumber());
+            return false;
+        }
+    }
+
+    /**
+     * Posts every review of the job in order. Posted reviews are removed from the job, so after a failure
+     * it only holds the reviews still to be posted.
+     *
+     * @param logger build log to report to, may be null
+     * @return {@link XcalscanGerritReviewAction.Status#SENT}, {@link XcalscanGerritReviewAction.Status#DUPLICATE} when the
+     * same review was already posted to the patchset, or {@link XcalscanGerritReviewAction.Status#SUPERSEDED} when the
+     * remaining reviews were dropped because a newer patchset of the change superseded them
+     * @throws RestApiException when Gerrit refuses or fails a post, remaining reviews are not posted
+     */
+    public XcalscanGerritReviewAction.Status deliver(ReviewJob job, GerritService gerritService, PrintStream logger) throws RestApiException {
+        if (ReviewDigestCache.get().isDuplicate(job)) {
+            log.info("[deliver] review of change: {}, patchset: {} unchanged, digest: {}", job.getChangeNumber(), job.getPatchSetNumber(), job.getDigest());
+            if (logger != null) {
+                logger.println(CommonUtil.formatString("Review unchanged since the last post to patchset {}, not sent again", job.getPatchSetNumber()));
+            }
+            return XcalscanGerritReviewAction.Status.DUPLICATE;
+        }
+        Iterator<ReviewInput> reviewInputs = job.getReviewInputs().iterator();
+        boolean posted = false;
+        while (reviewInputs.hasNext()) {
+            if (posted) {
+                pause(job);
+            }
+            if (isSuperseded(job)) {
+                log.info("[deliver] review of change: {}, patchset: {} superseded by patchset {}", job.getChangeNumber(), job.getPatchSetNumber(),
+                        ChangeCoalescer.get().getNewestPatchSet(job.getServerName(), job.getChangeNumber()));
+                if (logger != null) {
+                    logger.println(CommonUtil.formatString("Review superseded by patchset {}, not sent",
+                            ChangeCoalescer.get().getNewestPatchSet(job.getServerName(), job.getChangeNumber())));
+                }
+                return XcalscanGerritReviewAction.Status.SUPERSEDED;
+            }
+            ReviewInput reviewInput = reviewInputs.next();
+            if (logger != null) {
+                logger.println(CommonUtil.formatString("[perform] reviewMessage: {}", reviewInput.message));
+                if (reviewInput.comments != null) {
+                    logger.println(CommonUtil.formatString("[perform] inline comments: {} in {} file(s)",
+                            reviewInput.comments.values().stream().mapToInt(List::size).sum(), reviewInput.comments.size()));
+                }
+            }
+            GerritServerMetrics metrics = GerritServerMetrics.of(job.getServerName());
+            long start = System.nanoTime();
+            try {
+                ReviewResult reviewResult = gerritService.postReview(job.getChangeNumber(), job.getPatchSetNumber(), reviewInput);
+                if (reviewResult != null && StringUtils.isNotEmpty(reviewResult.error)) {
+                    throw new RestApiException(reviewResult.error);
+                }
+            } catch (RestApiException e) {
+                metrics.recordFailure(System.nanoTime() - start);
+                throw e;
+            }
+            metrics.recordPost(reviewInput, System.nanoTime() - start);
+            reviewInputs.remove();
+            posted = true;
+            if (logger != null) {
+                logger.println("Review has been sent");
+            }
+        }
+        ReviewDigestCache.get().put(job);
+        return XcalscanGerritReviewAction.Status.SENT;
+    }
+
+    private static void pause(ReviewJob job) throws RestApiException {
+        if (job.getPauseMillis() <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(job.getPauseMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RestApiException("Interrupted while posting review of change " + job.getChangeNumber(), e);
+        }
+    }
+
+    static String describe(XcalscanGerritReviewAction.Status status) {
+        switch (status) {
+            case SUPERSEDED:
+                return "Review superseded by a newer patchset";
+            case DUPLICATE:
+                return "Review unchanged, not sent again";
+            default:
+                return "Review has been sent";
+        }
+    }
+
+    static boolean isSuperseded(ReviewJob job) {
+        return job.isSupersede() && ChangeCoalescer.get().isSuperseded(job.getServerName(), job.getChangeNumber(), job.getPatchSetNumber());
+    }
+
+    /**
+     * Moves a job whose delivery failed to the outbox when it asked for retries and the failure is transient.
+     *
+     * @return whether the job was queued for a retry
+     */
+    public boolean retryLater(ReviewJob job, Exception failure) {
+        if (!job.isRetry() || !GerritReviewOutbox.isRetryable(failure)) {
+            return false;
+        }
+        try {
+            GerritReviewOutbox.get().enqueue(job, CommonUtil.formatString("{}: {}", failure.getClass(), failure.getMessage()));
+            return true;
+        } catch (IOException e) {
+            log.warn("[retryLater] unable to queue review, {}: {}", e.getClass(), e.getMessage());
+            return false;
+        }
+    }
+
+    private void deliverQueued(ReviewJob job) {
+        try (ACLContext ignored = ACL.as(ACL.SYSTEM)) {
+            Run<?, ?> run = Run.fromExternalizableId(job.getBuildId());
+            XcalscanGerritReviewAction.Status status;
+            String message;
+            try {
+                status = deliver(job, resolveService(job, run), null);
+                message = describe(status);
+            } catch (RestApiException | RuntimeException e) {
+                log.warn("[deliverQueued] unable to post review, change: {}, patchset: {}, {}: {}", job.getChangeNumber(), job.getPatchSetNumber(), e.getClass(), e.getMessage());
+                status = retryLater(job, e) ? XcalscanGerritReviewAction.Status.QUEUED : XcalscanGerritReviewAction.Status.FAILED;
+                message = CommonUtil.formatString("Unable to post review, {}: {}", e.getClass(), e.getMessage());
+            }
+            record(run, job, status, message);
+        }
+    }
+
+    /**
+     * Resolves the pooled client of a job, looking up the credential in the context of the build that queued it, or
+     * of its job once that build is gone, so a folder credential is never replaced by a global one with the same ID.
+     *
+     * @throws IllegalStateException when the job names a credential that cannot be found, or the job it was queued by
+     *                               no longer exists, rather than posting the review with other credentials
+     */
+    GerritService resolveService(ReviewJob job, Run<?, ?> run) {
+        String credentialId = job.getCredentialId();
+        StandardUsernamePasswordCredentials credentials = null;
+        if (StringUtils.isNotBlank(credentialId)) {
+            if (run != null) {
+                credentials = CredentialResolver.get().resolve(credentialId, run);
+            } else {
+                // reviews queued before the job name was recorded still have it in the externalizable build ID
+                String jobName = job.getJobName() != null ? job.getJobName() : StringUtils.substringBeforeLast(job.getBuildId(), "#");
+                Item item = StringUtils.isNotBlank(jobName) ? Jenkins.get().getItemByFullName(jobName) : null;
+                if (item == null) {
+                    throw new IllegalStateException(CommonUtil.formatString(getLocalized("jenkins.plugin.error.gerrit.job.not.found"), jobName, credentialId));
+                }
+                credentials = CredentialResolver.get().resolve(credentialId, item);
+            }
+            if (credentials == null) {
+                throw new IllegalStateException(CommonUtil.formatString(getLocalized("jenkins.plugin.error.gerrit.credential.not.found"), credentialId));
+            }
+        }
+        return GerritClientRegistry.get().getService(job.getServerName(), credentialId, credentials);
+    }
+
+    static void record(Run<?, ?> run, ReviewJob job, XcalscanGerritReviewAction.Status status, String message) {
+        if (run == null) {
+            return;
+        }
+        run.addOrReplaceAction(new XcalscanGerritReviewAction(status, job.getChangeNumber(), job.getPatchSetNumber(), message, new Date()));
+        try {
+            run.save();
+        } catch (IOException e) {
+            log.warn("[record] unable to save {}, {}: {}", run, e.getClass(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.urswolfer.gerrit.client.rest.http.HttpStatusException;
+import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.plugins.xcal.action.XcalscanGerritReviewAction;
+import hudson.plugins.xcal.util.CommonUtil;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import jenkins.model.Jenkins;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durable queue of reviews whose post failed for a transient reason, stored as one JSON file per server, change and
+ * patchset under {@code JENKINS_HOME/xcalscan-gerrit-outbox}. Pending reviews are retried with exponential backoff
+ * and jitter, and survive controller restarts. A newer review for the same patchset replaces the pending one, and
+ * reviews of patchsets superseded by a newer one of the same change are dropped.
+ */
+@Slf4j
+public final class GerritReviewOutbox {
+
+    public static final String DIRECTORY = "xcalscan-gerrit-outbox";
+
+    /**
+     * Delay before the first retry, doubled with every failed attempt, configurable with {@code -Dhudson.plugins.xcal.service.GerritReviewOutbox.initialDelaySeconds}.
+     */
+    public static final long INITIAL_DELAY_SECONDS = Long.getLong(GerritReviewOutbox.class.getName() + ".initialDelaySeconds", 30L);
+
+    /**
+     * Upper bound of the retry delay, configurable with {@code -Dhudson.plugins.xcal.service.GerritReviewOutbox.maxDelaySeconds}.
+     */
+    public static final long MAX_DELAY_SECONDS = Long.getLong(GerritReviewOutbox.class.getName() + ".maxDelaySeconds", 3600L);
+
+    /**
+     * Attempts after which a review is dropped, configurable with {@code -Dhudson.plugins.xcal.service.GerritReviewOutbox.maxAttempts}.
+     */
+    public static final int MAX_ATTEMPTS = Integer.getInteger(GerritReviewOutbox.class.getName() + ".maxAttempts", 12);
+
+    private static final String SUFFIX = ".json";
+    private static final GerritReviewOutbox INSTANCE = new GerritReviewOutbox();
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean paused;
+
+    private GerritReviewOutbox() {
+    }
+
+    public static GerritReviewOutbox get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Number of reviews waiting for a retry.
+     */
+    public int getQueueDepth() {
+        return entries.size();
+    }
+
+    /**
+     * Forgets the pending reviews loaded into memory, leaving their files in place, e.g. when Jenkins is started again
+     * in the same JVM.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Stops the background retries until resumed, leaving pending reviews queued, e.g. so that the reviews posted and
+     * those pending can be counted without a retry moving one from the queue to the server in between.
+     */
+    public void setPaused(boolean paused) {
+        this.paused = paused;
+    }
+
+    /**
+     * Returns whether a failed post is worth retrying: connection failures, overload and server errors are,
+     * while requests Gerrit rejected as invalid are not.
+     */
+    public static boolean isRetryable(Exception e) {
+        if (e instanceof GerritServerGuard.GerritUnavailableException) {
+            return true;
+        }
+        if (e instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) e).getStatusCode();
+            return statusCode == 408 || statusCode == 429 || statusCode >= 500;
+        }
+        return e instanceof RestApiException && e.getCause() instanceof IOException;
+    }
+
+    /**
+     * Stores the job for a later retry, replacing a pending review of the same patchset.
+     */
+    public void enqueue(ReviewJob job, String lastError) throws IOException {
+        Entry entry = new Entry(job, 0, nextAttempt(0), lastError);
+        String key = key(job);
+        synchronized (this) {
+            write(key, entry);
+            entries.put(key, entry);
+        }
+        log.info("[enqueue] review of change: {}, patchset: {} queued for retry, queue depth: {}", job.getChangeNumber(), job.getPatchSetNumber(), entries.size());
+    }
+
+    /**
+     * Retries every pending review whose backoff elapsed.
+     */
+    void retryDue() {
+        long now = System.currentTimeMillis();
+        for (String key : new ArrayList<>(entries.keySet())) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                continue;
+            }
+            if (GerritReviewDispatcher.isSuperseded(entry.getJob())) {
+                dropSuperseded(key, entry);
+            } else if (entry.getNextAttemptAt() <= now) {
+                retry(key, entry);
+            }
+        }
+    }
+
+    /**
+     * Drops a pending review without waiting for its backoff, since a newer patchset of the change made it stale.
+     */
+    private void dropSuperseded(String key, Entry entry) {
+        ReviewJob job = entry.getJob();
+        log.info("[dropSuperseded] review of change: {}, patchset: {} superseded by patchset {}", job.getChangeNumber(), job.getPatchSetNumber(),
+                ChangeCoalescer.get().getNewestPatchSet(job.getServerName(), job.getChangeNumber()));
+        remove(key, entry);
+        GerritReviewDispatcher.record(Run.fromExternalizableId(job.getBuildId()), job, XcalscanGerritReviewAction.Status.SUPERSEDED, "Review superseded by a newer patchset");
+    }
+
+    private void retry(String key, Entry entry) {
+        ReviewJob job = entry.getJob();
+        Run<?, ?> run = Run.fromExternalizableId(job.getBuildId());
+        try {
+            GerritReviewDispatcher dispatcher = GerritReviewDispatcher.get();
+            XcalscanGerritReviewAction.Status status = dispatcher.deliver(job, dispatcher.resolveService(job, run), null);
+            if (status == XcalscanGerritReviewAction.Status.SUPERSEDED) {
+                dropSuperseded(key, entry);
+                return;
+            }
+            remove(key, entry);
+            GerritReviewDispatcher.record(run, job, status, status == XcalscanGerritReviewAction.Status.SENT
+                    ? "Review has been sent after " + (entry.getAttempts() + 1) + " retries" : GerritReviewDispatcher.describe(status));
+        } catch (RestApiException | RuntimeException e) {
+            int attempts = entry.getAttempts() + 1;
+            String error = CommonUtil.formatString("{}: {}", e.getClass(), e.getMessage());
+            if (attempts >= MAX_ATTEMPTS || !isRetryable(e)) {
+                log.warn("[retry] giving up review of change: {}, patchset: {} after {} attempt(s), {}", job.getChangeNumber(), job.getPatchSetNumber(), attempts, error);
+                remove(key, entry);
+                GerritReviewDispatcher.record(run, job, XcalscanGerritReviewAction.Status.FAILED, "Unable to post review, " + error);
+                return;
+            }
+            Entry next = new Entry(job, attempts, nextAttempt(attempts), error);
+            synchronized (this) {
+                if (entries.replace(key, entry, next)) {
+                    try {
+                        write(key, next);
+                    } catch (IOException ioe) {
+                        log.warn("[retry] unable to persist {}, {}: {}", key, ioe.getClass(), ioe.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Exponential backoff with full jitter between half and one and a half times the delay.
+     */
+    private static long nextAttempt(int attempts) {
+        long delaySeconds = Math.min(MAX_DELAY_SECONDS, INITIAL_DELAY_SECONDS << Math.min(attempts, 20));
+        long jittered = (long) (TimeUnit.SECONDS.toMillis(delaySeconds) * (0.5 + ThreadLocalRandom.current().nextDouble()));
+        return System.currentTimeMillis() + jittered;
+    }
+
+    /**
+     * Removes the entry unless a newer review of the same patchset replaced it meanwhile.
+     */
+    private synchronized void remove(String key, Entry entry) {
+        if (!entries.remove(key, entry)) {
+            return;
+        }
+        File file = new File(getDirectory(), key + SUFFIX);
+        if (file.exists() && !file.delete()) {
+            log.warn("[remove] unable to delete {}", file);
+        }
+    }
+
+    /**
+     * Writes the entry through a temporary file of its key. Callers hold the outbox lock, so a build queueing a review
+     * and the retry thread rescheduling one of the same patchset neither share the temporary file nor leave the older
+     * entry on disk.
+     */
+    private void write(String key, Entry entry) throws IOException {
+        File directory = getDirectory();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        File tmp = new File(directory, key + SUFFIX + ".tmp");
+        CommonUtil.objectMapper.writeValue(tmp, entry);
+        Files.move(tmp.toPath(), new File(directory, key + SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void load() {
+        File[] files = getDirectory().listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            try {
+                Entry entry = CommonUtil.objectMapper.readValue(file, Entry.class);
+                entries.put(file.getName().substring(0, file.getName().length() - SUFFIX.length()), entry);
+                ReviewJob job = entry.getJob();
+                if (job.isSupersede()) {
+                    // pending reviews are the only record of in flight patchsets after a restart
+                    ChangeCoalescer.get().register(job.getServerName(), job.getChangeNumber(), job.getPatchSetNumber());
+                }
+            } catch (IOException e) {
+                log.warn("[load] unable to read {}, {}: {}", file, e.getClass(), e.getMessage());
+            }
+        }
+        log.info("[load] {} pending review(s) in outbox", entries.size());
+    }
+
+    private static File getDirectory() {
+        return new File(Jenkins.get().getRootDir(), DIRECTORY);
+    }
+
+    private static String key(ReviewJob job) {
+        return (job.getServerName() + '_' + job.getChangeNumber() + '_' + job.getPatchSetNumber()).replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void init() {
+        get().load();
+    }
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Entry {
+        ReviewJob job;
+        int attempts;
+        long nextAttemptAt;
+        String lastError;
+    }
+
+    /**
+     * Retries pending reviews in the background.
+     */
+    @Extension
+    public static class RetryWork extends AsyncPeriodicWork {
+
+        public RetryWork() {
+            super("Xcalscan Gerrit review outbox");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return TimeUnit.SECONDS.toMillis(15);
+        }
+
+        @Override
+        protected void execute(TaskListener listener) {
+            if (!get().paused && get().getQueueDepth() > 0) {
+                try (ACLContext ignored = ACL.as(ACL.SYSTEM)) {
+                    get().retryDue();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import hudson.Extension;
+import hudson.model.AdministrativeMonitor;
+import hudson.plugins.xcal.Messages;
+
+/**
+ * Shows on the Manage Jenkins page how many Xcalscan reviews are waiting for a retry.
+ */
+@Extension
+public class GerritReviewOutboxMonitor extends AdministrativeMonitor {
+
+    @Override
+    public boolean isActivated() {
+        return getQueueDepth() > 0;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.GerritReviewOutboxMonitor_displayName();
+    }
+
+    public int getQueueDepth() {
+        return GerritReviewOutbox.get().getQueueDepth();
+    }
+}
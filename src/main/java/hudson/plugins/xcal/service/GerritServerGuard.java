@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.urswolfer.gerrit.client.rest.http.HttpStatusException;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coordinates the calls of all executors to one Gerrit server: a token bucket limits the request rate, and a circuit
+ * breaker fails calls fast while the server keeps failing.
+ * <p>
+ * The allowed rate halves when Gerrit answers 429 or 503 or a call is slower than {@link Limits#getSlowCallMillis()},
+ * and recovers gradually with successful calls. A slow call that succeeds only lowers the rate, it does not count
+ * towards opening the circuit.
+ */
+@Slf4j
+public final class GerritServerGuard {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private static final ConcurrentMap<String, GerritServerGuard> GUARDS = new ConcurrentHashMap<>();
+    private static volatile Limits limits = Limits.DEFAULT;
+
+    private final String serverName;
+    private double rate;
+    private double tokens;
+    private long refilledAt;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    private GerritServerGuard(String serverName) {
+        this.serverName = serverName;
+        this.rate = limits.getPermitsPerSecond();
+        this.tokens = limits.getBurst();
+        this.refilledAt = System.nanoTime();
+    }
+
+    public static GerritServerGuard of(String serverName) {
+        return GUARDS.computeIfAbsent(serverName, GerritServerGuard::new);
+    }
+
+    public static Limits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Applies new limits to every server. Circuits keep their state, and rates above the new permits per second are
+     * lowered to it, so saving the global configuration neither closes open circuits nor resets throttled rates.
+     */
+    public static void setLimits(Limits newLimits) {
+        if (newLimits.equals(limits)) {
+            return;
+        }
+        limits = newLimits;
+        for (GerritServerGuard guard : GUARDS.values()) {
+            guard.applyLimits(newLimits);
+        }
+    }
+
+    /**
+     * Forgets the state of every server, e.g. when Jenkins is started again in the same JVM.
+     */
+    public static void invalidateAll() {
+        GUARDS.clear();
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * Waits for a permit to call the server.
+     *
+     * @throws GerritUnavailableException when the breaker is open or no permit became available in time
+     */
+    public void acquire() throws GerritUnavailableException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(limits.getAcquireTimeoutSeconds());
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                checkBreaker();
+                refill();
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    trialInFlight = state == State.HALF_OPEN;
+                    return;
+                }
+                waitNanos = (long) ((1 - tokens) / rate * TimeUnit.SECONDS.toNanos(1));
+            }
+            if (System.nanoTime() + waitNanos > deadline) {
+                throw new GerritUnavailableException("Rate limit of Gerrit server " + serverName + " exceeded, no permit within " + limits.getAcquireTimeoutSeconds() + " s");
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, TimeUnit.MILLISECONDS.toNanos(1)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new GerritUnavailableException("Interrupted while waiting for Gerrit server " + serverName);
+            }
+        }
+    }
+
+    public synchronized void onSuccess(long latencyMillis) {
+        trialInFlight = false;
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            log.info("[onSuccess] Gerrit server {} recovered, closing circuit", serverName);
+            state = State.CLOSED;
+        }
+        if (latencyMillis > limits.getSlowCallMillis()) {
+            lowerRate("slow call of " + latencyMillis + " ms");
+        } else {
+            rate = Math.min(limits.getPermitsPerSecond(), rate * 1.1);
+        }
+    }
+
+    /**
+     * Records a failed call. Overload answers lower the rate; server errors, connection failures and unexpected
+     * errors such as an unreadable response count towards opening the circuit, while rejected requests do not.
+     */
+    public synchronized void onFailure(Exception e) {
+        trialInFlight = false;
+        if (e instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) e).getStatusCode();
+            if (statusCode == 429 || statusCode == 503) {
+                lowerRate("HTTP " + statusCode);
+                recordFailure();
+            } else if (statusCode >= 500) {
+                recordFailure();
+            }
+        } else if (e instanceof RuntimeException || e.getCause() instanceof IOException) {
+            recordFailure();
+        }
+    }
+
+    private void lowerRate(String reason) {
+        rate = Math.max(limits.getPermitsPerSecond() / 16, rate / 2);
+        log.info("[lowerRate] Gerrit server {} overloaded ({}), rate lowered to {} per second", serverName, reason, rate);
+    }
+
+    private synchronized void applyLimits(Limits newLimits) {
+        rate = Math.min(rate, newLimits.getPermitsPerSecond());
+        tokens = Math.min(tokens, newLimits.getBurst());
+    }
+
+    private void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= limits.getFailureThreshold()) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(limits.getOpenSeconds());
+            log.warn("[recordFailure] circuit of Gerrit server {} open for {} s after {} failure(s)", serverName, limits.getOpenSeconds(), consecutiveFailures);
+        }
+    }
+
+    private void checkBreaker() throws GerritUnavailableException {
+        if (state == State.OPEN && System.currentTimeMillis() >= openUntil) {
+            state = State.HALF_OPEN;
+        }
+        if (state == State.OPEN || (state == State.HALF_OPEN && trialInFlight)) {
+            throw new GerritUnavailableException("Circuit of Gerrit server " + serverName + " is open after repeated failures");
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(limits.getBurst(), tokens + (now - refilledAt) * rate / TimeUnit.SECONDS.toNanos(1));
+        refilledAt = now;
+    }
+
+    /**
+     * Limits shared by all Gerrit servers, configured on the global configuration page.
+     */
+    @Getter
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    public static final class Limits {
+        public static final Limits DEFAULT = new Limits(5, 10, 5, 30, 10000, 120);
+
+        private final double permitsPerSecond;
+        private final int burst;
+        private final int failureThreshold;
+        private final int openSeconds;
+        private final long slowCallMillis;
+        private final long acquireTimeoutSeconds;
+    }
+
+    /**
+     * Thrown instead of calling Gerrit while its circuit is open or its rate limit is exhausted.
+     */
+    public static class GerritUnavailableException extends RestApiException {
+        private static final long serialVersionUID = 1L;
+
+        public GerritUnavailableException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import jenkins.model.Jenkins;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the publish phase durations and review counters of one Gerrit server across all builds, for capacity
+ * planning. Each server is exposed as a JMX MXBean, and as gauges of the Metrics plugin when it is installed.
+ */
+@Slf4j
+public final class GerritServerMetrics implements GerritServerMetricsMXBean {
+
+    public static final String JMX_DOMAIN = "hudson.plugins.xcal";
+
+    private static final ConcurrentMap<String, GerritServerMetrics> METRICS = new ConcurrentHashMap<>();
+
+    private final String serverName;
+    private final LongAdder publishes = new LongAdder();
+    private final LongAdder posts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder issuesRendered = new LongAdder();
+    private final LatencyHistogram[] phases = new LatencyHistogram[PublishTimer.Phase.values().length];
+    private final LatencyHistogram requests = new LatencyHistogram();
+
+    private GerritServerMetrics(String serverName) {
+        this.serverName = serverName;
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    public static GerritServerMetrics of(String serverName) {
+        return METRICS.computeIfAbsent(serverName, name -> {
+            GerritServerMetrics metrics = new GerritServerMetrics(name);
+            metrics.register();
+            return metrics;
+        });
+    }
+
+    public static Collection<GerritServerMetrics> all() {
+        return Collections.unmodifiableCollection(METRICS.values());
+    }
+
+    /**
+     * Records the phases of a publish and the number of issues its review reported, see {@link RenderedReview#getSelected()}.
+     */
+    public void recordPublish(PublishTimer timer, int issues) {
+        publishes.increment();
+        issuesRendered.add(Math.max(0, issues));
+        for (PublishTimer.Phase phase : PublishTimer.Phase.values()) {
+            if (timer.isTimed(phase)) {
+                phases[phase.ordinal()].record(timer.getNanos(phase));
+            }
+        }
+    }
+
+    public void recordPost(ReviewInput reviewInput, long nanos) {
+        posts.increment();
+        bytesSent.add(sizeOf(reviewInput));
+        requests.record(nanos);
+    }
+
+    public void recordFailure(long nanos) {
+        failures.increment();
+        requests.record(nanos);
+    }
+
+    /**
+     * Returns the UTF-8 size of the message and inline comments of a review, the bulk of the request sent to Gerrit.
+     */
+    static long sizeOf(ReviewInput reviewInput) {
+        long size = reviewInput.message != null ? reviewInput.message.getBytes(StandardCharsets.UTF_8).length : 0;
+        if (reviewInput.comments != null) {
+            for (Map.Entry<String, List<ReviewInput.CommentInput>> file : reviewInput.comments.entrySet()) {
+                for (ReviewInput.CommentInput comment : file.getValue()) {
+                    size += file.getKey().length();
+                    size += comment.message != null ? comment.message.getBytes(StandardCharsets.UTF_8).length : 0;
+                }
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public String getServerName() {
+        return serverName;
+    }
+
+    @Override
+    public long getPublishes() {
+        return publishes.sum();
+    }
+
+    @Override
+    public long getPosts() {
+        return posts.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public long getIssuesRendered() {
+        return issuesRendered.sum();
+    }
+
+    @Override
+    public Map<String, LatencyHistogram.Snapshot> getPhases() {
+        Map<String, LatencyHistogram.Snapshot> snapshots = new LinkedHashMap<>();
+        for (PublishTimer.Phase phase : PublishTimer.Phase.values()) {
+            snapshots.put(phase.getKey(), phases[phase.ordinal()].snapshot());
+        }
+        return snapshots;
+    }
+
+    public LatencyHistogram getPhase(PublishTimer.Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getRequests() {
+        return requests.snapshot();
+    }
+
+    LatencyHistogram getRequestHistogram() {
+        return requests;
+    }
+
+    private void register() {
+        try {
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=GerritServerMetrics,server=" + ObjectName.quote(serverName));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            log.warn("[register] unable to register metrics of {} with JMX, {}: {}", serverName, e.getClass(), e.getMessage());
+        }
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins != null && jenkins.getPlugin("metrics") != null) {
+            try {
+                MetricsPluginGauges.register(this);
+            } catch (LinkageError | RuntimeException e) {
+                log.warn("[register] unable to register metrics of {} with the Metrics plugin, {}: {}", serverName, e.getClass(), e.getMessage());
+            }
+        }
+    }
+}
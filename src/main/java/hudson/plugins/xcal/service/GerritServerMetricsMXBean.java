@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import java.util.Map;
+
+/**
+ * Publishing statistics of one Gerrit server, registered as
+ * {@code hudson.plugins.xcal:type=GerritServerMetrics,server=<name>}.
+ */
+public interface GerritServerMetricsMXBean {
+
+    String getServerName();
+
+    /**
+     * Number of builds that rendered a review for the server.
+     */
+    long getPublishes();
+
+    /**
+     * Number of review messages posted.
+     */
+    long getPosts();
+
+    /**
+     * Number of review messages Gerrit rejected or could not be reached for.
+     */
+    long getFailures();
+
+    /**
+     * UTF-8 size of the messages and inline comments posted.
+     */
+    long getBytesSent();
+
+    /**
+     * Number of new and fixed issues the reviews reported after the changed lines filter, whether listed or only
+     * counted, the same wherever the review was rendered.
+     */
+    long getIssuesRendered();
+
+    /**
+     * Duration of each publish phase, keyed by phase.
+     */
+    Map<String, LatencyHistogram.Snapshot> getPhases();
+
+    /**
+     * Duration of the review HTTP calls, including those of queued and retried reviews.
+     */
+    LatencyHistogram.Snapshot getRequests();
+}
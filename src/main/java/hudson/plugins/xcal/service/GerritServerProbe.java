@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.google.gerrit.extensions.restapi.RestApiException;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cheap Gerrit health check based on the server version endpoint. Successful results are memoized per server
+ * for {@link #TTL_SECONDS} seconds, so repeated probes do not hit Gerrit again.
+ */
+@Slf4j
+public final class GerritServerProbe {
+
+    /**
+     * How long a successful probe stays valid, configurable with {@code -Dhudson.plugins.xcal.service.GerritServerProbe.ttlSeconds}.
+     */
+    public static final long TTL_SECONDS = Long.getLong(GerritServerProbe.class.getName() + ".ttlSeconds", 300L);
+
+    /**
+     * Reports probe latency to the build log and the Test Connection result, enabled with {@code -Dhudson.plugins.xcal.service.GerritServerProbe.debug=true}.
+     */
+    public static final boolean DEBUG = Boolean.getBoolean(GerritServerProbe.class.getName() + ".debug");
+
+    private static final ConcurrentMap<String, Result> RESULTS = new ConcurrentHashMap<>();
+
+    private GerritServerProbe() {
+    }
+
+    /**
+     * Returns the Gerrit server version, reusing a memoized result unless it expired or {@code force} is set.
+     */
+    public static Result probe(GerritService gerritService, boolean force) throws RestApiException {
+        String serverName = gerritService.getServerName();
+        Result cached = RESULTS.get(serverName);
+        if (!force && cached != null && !cached.isExpired()) {
+            return cached.asCached();
+        }
+        long start = System.nanoTime();
+        String version = gerritService.getServerVersion();
+        long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.debug("[probe] serverName: {}, version: {}, latency: {} ms", serverName, version, latencyMillis);
+        Result result = new Result(version, latencyMillis, System.currentTimeMillis(), false);
+        RESULTS.put(serverName, result);
+        return result;
+    }
+
+    public static void invalidateAll() {
+        RESULTS.clear();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static final class Result {
+        private final String version;
+        private final long latencyMillis;
+        private final long checkedAt;
+        private final boolean cached;
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() - checkedAt > TimeUnit.SECONDS.toMillis(TTL_SECONDS);
+        }
+
+        private Result asCached() {
+            return new Result(version, latencyMillis, checkedAt, true);
+        }
+    }
+}
@@ -3,80 +3,144 @@ package hudson.plugins.xcal.service;
 import com.cloudbees.plugins.credentials.common.UsernamePasswordCredentials;
 import com.google.common.base.MoreObjects;
 import com.google.gerrit.extensions.api.GerritApi;
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import com.google.gerrit.extensions.api.changes.ReviewResult;
 import com.google.gerrit.extensions.api.changes.RevisionApi;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.sonyericsson.hudson.plugins.gerrit.trigger.GerritManagement;
 import com.sonyericsson.hudson.plugins.gerrit.trigger.config.IGerritHudsonTriggerConfig;
 import com.urswolfer.gerrit.client.rest.GerritAuthData;
 import com.urswolfer.gerrit.client.rest.GerritRestApiFactory;
+import hudson.Util;
 import hudson.util.Secret;
-import lombok.Data;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang.StringUtils;
 
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
 import static hudson.plugins.xcal.util.Localization.getLocalized;
 
-@Data
+/**
+ * Wraps a {@link GerritApi} client for one Gerrit server and one set of credentials.
+ * Instances are shared between builds through {@link GerritClientRegistry}, so they must stay immutable; the password
+ * is only handed to the client and not kept.
+ */
 @Slf4j
 public class GerritService {
 
-    private GerritApi gerritApi;
-    private String serverName;
-    private String username = null;
-    private String password = null;
+    @Getter
+    private final GerritApi gerritApi;
+    @Getter
+    private final String serverName;
+    @Getter
+    private final String username;
+    @Getter
+    private final String fingerprint;
 
     public GerritService(String serverName, UsernamePasswordCredentials credentials) {
         this.serverName = serverName;
-        if (credentials != null) {
-            this.username = credentials.getUsername();
-            this.password = Secret.toString(credentials.getPassword());
-        }
-        initialize();
-    }
-
-    private void initialize() {
+        this.username = credentials != null ? credentials.getUsername() : null;
+        String password = credentials != null ? Secret.toString(credentials.getPassword()) : null;
         log.debug("[init] serverName: {}, username:{}, blank password: {}", serverName, username, StringUtils.isBlank(password));
-        IGerritHudsonTriggerConfig gerritConfig = GerritManagement.getConfig(this.serverName);
-        if (gerritConfig == null) {
-            throw new IllegalArgumentException(getLocalized("jenkins.plugin.error.gerrit.config.empty"));
-        }
+        IGerritHudsonTriggerConfig gerritConfig = getGerritConfig(serverName);
 
         String gerritFrontEndUrl = gerritConfig.getGerritFrontEndUrl();
 
         boolean useRestApi = gerritConfig.isUseRestApi();
         checkRestApiAllowed(useRestApi);
 
-        String username = getUsername(this.username, gerritConfig);
-        String password = getPassword(this.password, gerritConfig);
-        if (StringUtils.isEmpty(username)) {
+        String effectiveUsername = getUsername(username, gerritConfig);
+        String effectivePassword = getPassword(password, gerritConfig);
+        if (StringUtils.isEmpty(effectiveUsername)) {
             throw new IllegalArgumentException(getLocalized("jenkins.plugin.error.gerrit.user.empty"));
         }
-        GerritAuthData.Basic authData = new GerritAuthData.Basic(gerritFrontEndUrl, username, password, useRestApi);
-        gerritApi = new GerritRestApiFactory().create(authData);
-        try {
-            Integer size = gerritApi.changes().query().get().size();
-            log.debug("[init] size: {}", size);
-
-        } catch (RestApiException e) {
-            log.debug("[init] {}: {}", e.getClass(), e.getMessage());
-        }
+        this.fingerprint = fingerprint(gerritConfig, effectiveUsername, effectivePassword);
+        GerritAuthData.Basic authData = new GerritAuthData.Basic(gerritFrontEndUrl, effectiveUsername, effectivePassword, useRestApi);
+        this.gerritApi = new GerritRestApiFactory().create(authData);
     }
 
     public RevisionApi getRevision(String changeNumber, String patchSetNumber) throws RestApiException {
         return gerritApi.changes().id(changeNumber).revision(patchSetNumber);
     }
 
-    private void checkRestApiAllowed(boolean useRestApi) {
+    public ReviewResult postReview(String changeNumber, String patchSetNumber, ReviewInput reviewInput) throws RestApiException {
+        return guarded(() -> getRevision(changeNumber, patchSetNumber).review(reviewInput));
+    }
+
+    public String getServerVersion() throws RestApiException {
+        return guarded(() -> gerritApi.config().server().getVersion());
+    }
+
+    /**
+     * Lists the files touched by a patchset, without Gerrit's magic files such as {@code /COMMIT_MSG}.
+     */
+    public Set<String> listFiles(String changeNumber, String patchSetNumber) throws RestApiException {
+        Set<String> files = new LinkedHashSet<>(guarded(() -> getRevision(changeNumber, patchSetNumber).files()).keySet());
+        files.removeIf(file -> file.startsWith("/"));
+        return files;
+    }
+
+    /**
+     * Runs a call through the rate limiter and circuit breaker of the server.
+     */
+    private <T> T guarded(RestCall<T> call) throws RestApiException {
+        GerritServerGuard guard = GerritServerGuard.of(serverName);
+        guard.acquire();
+        long start = System.nanoTime();
+        try {
+            T result = call.call();
+            guard.onSuccess(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return result;
+        } catch (RestApiException | RuntimeException e) {
+            // unchecked failures, e.g. a response that cannot be parsed, must end a half-open trial too
+            guard.onFailure(e);
+            throw e;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RestCall<T> {
+        T call() throws RestApiException;
+    }
+
+    /**
+     * Computes the fingerprint a client for the given server and credentials would have, without creating one.
+     * A pooled client whose fingerprint differs was built from an outdated Gerrit Trigger config or credential.
+     */
+    public static String fingerprint(String serverName, UsernamePasswordCredentials credentials) {
+        IGerritHudsonTriggerConfig gerritConfig = getGerritConfig(serverName);
+        String username = credentials != null ? credentials.getUsername() : null;
+        String password = credentials != null ? Secret.toString(credentials.getPassword()) : null;
+        return fingerprint(gerritConfig, MoreObjects.firstNonNull(username, StringUtils.defaultString(gerritConfig.getGerritHttpUserName())),
+                MoreObjects.firstNonNull(password, StringUtils.defaultString(gerritConfig.getGerritHttpPassword())));
+    }
+
+    private static String fingerprint(IGerritHudsonTriggerConfig gerritConfig, String username, String password) {
+        return Util.getDigestOf(gerritConfig.getGerritFrontEndUrl() + '\n' + gerritConfig.isUseRestApi() + '\n' + username + '\n' + password);
+    }
+
+    private static IGerritHudsonTriggerConfig getGerritConfig(String serverName) {
+        IGerritHudsonTriggerConfig gerritConfig = GerritManagement.getConfig(serverName);
+        if (gerritConfig == null) {
+            throw new IllegalArgumentException(getLocalized("jenkins.plugin.error.gerrit.config.empty"));
+        }
+        return gerritConfig;
+    }
+
+    private static void checkRestApiAllowed(boolean useRestApi) {
         if (!useRestApi) {
             throw new IllegalStateException(getLocalized("jenkins.plugin.error.gerrit.restapi.off"));
         }
     }
 
-    private String getUsername(String username, IGerritHudsonTriggerConfig gerritConfig) {
+    private static String getUsername(String username, IGerritHudsonTriggerConfig gerritConfig) {
         return MoreObjects.firstNonNull(username, gerritConfig.getGerritHttpUserName());
     }
 
-    private String getPassword(String password, IGerritHudsonTriggerConfig gerritConfig) {
+    private static String getPassword(String password, IGerritHudsonTriggerConfig gerritConfig) {
         return MoreObjects.firstNonNull(password, gerritConfig.getGerritHttpPassword());
     }
 }
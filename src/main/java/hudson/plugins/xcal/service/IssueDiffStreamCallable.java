@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import hudson.plugins.xcal.payload.IssueDiff;
+import hudson.plugins.xcal.util.CommonUtil;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Reads issue diffs from a workspace file holding one JSON record per line, on the agent the file lives on.
+ * Records are parsed one at a time, and new and fixed issues passing the changed lines filter go through the same
+ * top issue selection as the review, so only the issues the review lists come back to the controller, with the
+ * number of the others per rule and per file. The selection is unbounded when the render options list every issue.
+ */
+public class IssueDiffStreamCallable extends MasterToSlaveFileCallable<IssueDiffStreamCallable.Result> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ChangedLines changedLines;
+    private final int contextLines;
+    private final int maxIssues;
+
+    /**
+     * @param options render options of the review, giving the changed lines filter and the number of issues listed
+     */
+    public IssueDiffStreamCallable(ReviewRenderOptions options) {
+        this.changedLines = options.getChangedLines();
+        this.contextLines = options.getContextLines();
+        this.maxIssues = options.getIssueLimit();
+    }
+
+    @Override
+    public Result invoke(File file, VirtualChannel channel) throws IOException {
+        ObjectReader reader = CommonUtil.objectMapper.readerFor(IssueDiff.class);
+        IssueSelection newIssues = new IssueSelection(maxIssues);
+        IssueSelection fixedIssues = new IssueSelection(maxIssues);
+        int records = 0;
+        int invalid = 0;
+        try (BufferedReader lines = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (StringUtils.isBlank(line)) {
+                    continue;
+                }
+                records++;
+                IssueDiff issueDiff;
+                try {
+                    issueDiff = reader.readValue(line);
+                } catch (JsonProcessingException e) {
+                    invalid++;
+                    continue;
+                }
+                if (changedLines != null && !changedLines.contains(issueDiff, contextLines)) {
+                    continue;
+                }
+                if (StringUtils.equalsIgnoreCase("NEW", issueDiff.getType())) {
+                    newIssues.add(issueDiff);
+                } else if (StringUtils.equalsIgnoreCase("FIXED", issueDiff.getType())) {
+                    fixedIssues.add(issueDiff);
+                }
+            }
+        }
+        return new Result(newIssues, fixedIssues, records, invalid);
+    }
+
+    @AllArgsConstructor(access = AccessLevel.PACKAGE)
+    public static class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @Getter(AccessLevel.PACKAGE)
+        private final IssueSelection newIssues;
+        @Getter(AccessLevel.PACKAGE)
+        private final IssueSelection fixedIssues;
+        /**
+         * Number of records in the file, including those filtered out.
+         */
+        @Getter
+        private final int records;
+        /**
+         * Number of records that could not be parsed and were skipped.
+         */
+        @Getter
+        private final int invalid;
+
+        /**
+         * Number of new and fixed issues passing the changed lines filter.
+         */
+        public int getSelected() {
+            return newIssues.getTotal() + fixedIssues.getTotal();
+        }
+
+        /**
+         * Number of issues sent back to be listed, the others are only counted.
+         */
+        public int getListed() {
+            return newIssues.getIssues().size() + fixedIssues.getIssues().size();
+        }
+    }
+}
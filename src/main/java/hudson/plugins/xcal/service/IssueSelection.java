@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import hudson.plugins.xcal.payload.IssueDiff;
+import hudson.plugins.xcal.util.IssueRanking;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Keeps the most important issues of a section in a single pass. Issues are kept in their original order until the
+ * limit is exceeded; from then on a bounded heap holds the top issues and every issue falling out of it is only
+ * counted per rule and per file. A selection made on an agent is sent back with its counts.
+ */
+final class IssueSelection implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Comparator<IssueDiff> LEAST_IMPORTANT_FIRST = IssueRanking.MOST_IMPORTANT_FIRST.reversed();
+
+    private final int limit;
+    private List<IssueDiff> list = new ArrayList<>();
+    private transient PriorityQueue<IssueDiff> heap;
+    private int total;
+    private final Map<String, Integer> omittedByRule = new HashMap<>();
+    private final Map<String, Integer> omittedByFile = new HashMap<>();
+
+    /**
+     * @param limit maximum number of issues kept, zero or less for no limit
+     */
+    IssueSelection(int limit) {
+        this.limit = limit;
+    }
+
+    void add(IssueDiff issueDiff) {
+        total++;
+        if (heap == null) {
+            list.add(issueDiff);
+            if (limit <= 0 || list.size() <= limit) {
+                return;
+            }
+            heap = new PriorityQueue<>(limit + 1, LEAST_IMPORTANT_FIRST);
+            heap.addAll(list);
+            list = null;
+        } else {
+            heap.add(issueDiff);
+        }
+        omit(heap.poll(), omittedByRule, omittedByFile);
+    }
+
+    /**
+     * Counts an issue that is not listed.
+     */
+    static void omit(IssueDiff issueDiff, Map<String, Integer> byRule, Map<String, Integer> byFile) {
+        byRule.merge(StringUtils.defaultString(issueDiff.getIssueCode()), 1, Integer::sum);
+        byFile.merge(StringUtils.defaultString(issueDiff.getRelativePath()), 1, Integer::sum);
+    }
+
+    /**
+     * Returns the kept issues, in their original order when none was dropped, otherwise most important first.
+     */
+    List<IssueDiff> getIssues() {
+        if (heap == null) {
+            return list;
+        }
+        List<IssueDiff> issues = new ArrayList<>(heap);
+        issues.sort(IssueRanking.MOST_IMPORTANT_FIRST);
+        list = issues;
+        heap = null;
+        return issues;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // the heap comparator is not serializable, only the kept issues are sent
+        getIssues();
+        out.defaultWriteObject();
+    }
+
+    boolean isEmpty() {
+        return total == 0;
+    }
+
+    int getTotal() {
+        return total;
+    }
+
+    int getOmitted() {
+        return total - getIssues().size();
+    }
+
+    Map<String, Integer> getOmittedByRule() {
+        return omittedByRule;
+    }
+
+    Map<String, Integer> getOmittedByFile() {
+        return omittedByFile;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets whose upper bounds double from 1 ms to about 2 minutes. Recording is lock free and
+ * allocation free; percentiles are reported as the upper bound of the bucket they fall in.
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 18;
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS + 1];
+    private final LongAdder totalMillis = new LongAdder();
+    private final LongAccumulator maxMillis = new LongAccumulator(Long::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+        // bucket i holds durations up to 2^i ms
+        int bucket = millis <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(millis - 1);
+        counts[Math.min(bucket, BUCKETS)].increment();
+        totalMillis.add(millis);
+        maxMillis.accumulate(millis);
+    }
+
+    public Snapshot snapshot() {
+        long[] snapshot = new long[counts.length];
+        long count = 0;
+        for (int i = 0; i < counts.length; i++) {
+            snapshot[i] = counts[i].sum();
+            count += snapshot[i];
+        }
+        long max = maxMillis.get();
+        return new Snapshot(count, count > 0 ? totalMillis.sum() / count : 0,
+                percentile(snapshot, count, 0.5, max), percentile(snapshot, count, 0.9, max), percentile(snapshot, count, 0.99, max), max);
+    }
+
+    private static long percentile(long[] counts, long count, double quantile, long max) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i < BUCKETS ? Math.min(1L << i, max) : max;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Statistics of a histogram at one point in time, in milliseconds.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static final class Snapshot {
+        private final long count;
+        private final long meanMillis;
+        private final long p50Millis;
+        private final long p90Millis;
+        private final long p99Millis;
+        private final long maxMillis;
+    }
+}
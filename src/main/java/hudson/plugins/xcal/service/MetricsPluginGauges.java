@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import jenkins.metrics.api.Metrics;
+
+/**
+ * Publishes {@link GerritServerMetrics} as gauges of the optional Metrics plugin, e.g.
+ * {@code xcalscan.gerrit.<server>.posts}, {@code xcalscan.gerrit.<server>.requests.p99} or
+ * {@code xcalscan.gerrit.<server>.phase.render.p99}. This class is only loaded when the Metrics plugin is installed.
+ */
+final class MetricsPluginGauges {
+
+    private MetricsPluginGauges() {
+    }
+
+    static void register(GerritServerMetrics metrics) {
+        MetricRegistry registry = Metrics.metricRegistry();
+        String prefix = MetricRegistry.name("xcalscan", "gerrit", metrics.getServerName());
+        registry.register(MetricRegistry.name(prefix, "publishes"), (Gauge<Long>) metrics::getPublishes);
+        registry.register(MetricRegistry.name(prefix, "posts"), (Gauge<Long>) metrics::getPosts);
+        registry.register(MetricRegistry.name(prefix, "failures"), (Gauge<Long>) metrics::getFailures);
+        registry.register(MetricRegistry.name(prefix, "bytes_sent"), (Gauge<Long>) metrics::getBytesSent);
+        registry.register(MetricRegistry.name(prefix, "issues_rendered"), (Gauge<Long>) metrics::getIssuesRendered);
+        register(registry, MetricRegistry.name(prefix, "requests"), metrics.getRequestHistogram());
+        for (PublishTimer.Phase phase : PublishTimer.Phase.values()) {
+            register(registry, MetricRegistry.name(prefix, "phase", phase.getKey()), metrics.getPhase(phase));
+        }
+    }
+
+    private static void register(MetricRegistry registry, String name, LatencyHistogram histogram) {
+        registry.register(MetricRegistry.name(name, "count"), (Gauge<Long>) () -> histogram.snapshot().getCount());
+        registry.register(MetricRegistry.name(name, "p50"), (Gauge<Long>) () -> histogram.snapshot().getP50Millis());
+        registry.register(MetricRegistry.name(name, "p99"), (Gauge<Long>) () -> histogram.snapshot().getP99Millis());
+        registry.register(MetricRegistry.name(name, "max"), (Gauge<Long>) () -> histogram.snapshot().getMaxMillis());
+    }
+}
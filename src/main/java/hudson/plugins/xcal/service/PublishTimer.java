@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the consecutive phases of one publish with the monotonic clock. Each lap closes the phase that ran since the
+ * previous lap, so timing a phase costs one {@link System#nanoTime()} call. A timer is used by one thread only.
+ */
+public final class PublishTimer {
+
+    public enum Phase {
+        ACTION("action"),
+        CREDENTIALS("credentials"),
+        ENVIRONMENT("environment"),
+        CLIENT("client"),
+        PROBE("probe"),
+        CHANGED_LINES("changed lines"),
+        FILES("files"),
+        RENDER("render"),
+        POST("post");
+
+        private final String label;
+
+        Phase(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * Name of the phase in metric names, e.g. {@code changed_lines}.
+         */
+        public String getKey() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    private final long start = System.nanoTime();
+    private final long[] nanos = new long[Phase.values().length];
+    private final boolean[] timed = new boolean[Phase.values().length];
+    private long last = start;
+
+    /**
+     * Ends the phase that ran since the previous lap.
+     */
+    public void lap(Phase phase) {
+        long now = System.nanoTime();
+        nanos[phase.ordinal()] += now - last;
+        timed[phase.ordinal()] = true;
+        last = now;
+    }
+
+    public boolean isTimed(Phase phase) {
+        return timed[phase.ordinal()];
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * Time from the creation of the timer to the last lap.
+     */
+    public long getTotalNanos() {
+        return last - start;
+    }
+
+    /**
+     * Formats the timed phases for the build log, e.g. {@code action 2 ms, client 0 ms, render 35 ms, post 210 ms, total 251 ms}.
+     */
+    public String format() {
+        StringBuilder builder = new StringBuilder(160);
+        for (Phase phase : Phase.values()) {
+            if (timed[phase.ordinal()]) {
+                builder.append(phase.label).append(' ').append(TimeUnit.NANOSECONDS.toMillis(nanos[phase.ordinal()])).append(" ms, ");
+            }
+        }
+        return builder.append("total ").append(TimeUnit.NANOSECONDS.toMillis(getTotalNanos())).append(" ms").toString();
+    }
+}
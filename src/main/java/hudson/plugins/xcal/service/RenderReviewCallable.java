@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import hudson.plugins.xcal.action.XcalscanAnalysisAction;
+import hudson.plugins.xcal.util.CommonUtil;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Renders the review on the agent of the build, so that rule lookups, localization and string building do not use
+ * controller CPU. Only the rendered reviews come back, as JSON since {@link ReviewInput} is not serializable.
+ * When an issues file is given, the issues are also streamed from the workspace on the agent.
+ */
+public class RenderReviewCallable extends MasterToSlaveFileCallable<RenderReviewCallable.Result> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final TypeReference<List<ReviewInput>> REVIEW_INPUTS = new TypeReference<List<ReviewInput>>() {
+    };
+
+    private final ReviewRenderOptions options;
+    private final XcalscanAnalysisAction xcalscanAnalysisAction;
+    private final String issuesFile;
+    private final ArrayList<String> patchSetFiles;
+
+    /**
+     * @param xcalscanAnalysisAction detached action, holding its issues unless they are read from the issues file
+     * @param issuesFile             path of the issues file on the agent, as resolved against the workspace by
+     *                               {@link hudson.FilePath#child}, or null
+     * @param patchSetFiles          files touched by the patchset, or null to render no inline comments
+     */
+    public RenderReviewCallable(ReviewRenderOptions options, XcalscanAnalysisAction xcalscanAnalysisAction, String issuesFile, Collection<String> patchSetFiles) {
+        this.options = options;
+        this.xcalscanAnalysisAction = xcalscanAnalysisAction;
+        this.issuesFile = issuesFile;
+        this.patchSetFiles = patchSetFiles != null ? new ArrayList<>(patchSetFiles) : null;
+    }
+
+    @Override
+    public Result invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+        IssueDiffStreamCallable.Result streamed = null;
+        int records = -1;
+        int invalid = 0;
+        if (issuesFile != null) {
+            streamed = new IssueDiffStreamCallable(options).invoke(new File(issuesFile), channel);
+            records = streamed.getRecords();
+            invalid = streamed.getInvalid();
+        }
+        RenderedReview rendered = options.render(xcalscanAnalysisAction, streamed, patchSetFiles);
+        return new Result(CommonUtil.objectMapper.writeValueAsString(rendered.getReviewInputs()), rendered.getDigest(), rendered.getSelected(), records, invalid);
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Result implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String reviewInputs;
+        private final String digest;
+        /**
+         * See {@link RenderedReview#getSelected()}.
+         */
+        private final int selected;
+        /**
+         * Number of records in the issues file, or -1 when the issues came with the action.
+         */
+        private final int records;
+        private final int invalid;
+
+        public RenderedReview readRenderedReview() throws IOException {
+            return new RenderedReview(CommonUtil.objectMapper.readValue(reviewInputs, REVIEW_INPUTS), digest, selected);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * The reviews rendered for a patchset, with the digest of what they report.
+ */
+@Getter
+@AllArgsConstructor
+public class RenderedReview {
+
+    private final List<ReviewInput> reviewInputs;
+    /**
+     * {@link ReviewDigestCache#digest} of the scan summary, the issues listed and the options the reviews were
+     * rendered with. A later scan reporting the same issues has the same digest, though its report links differ.
+     */
+    private final String digest;
+    /**
+     * Number of new and fixed issues the reviews report after the changed lines filter, including those only counted
+     * in the overflow summary.
+     */
+    private final int selected;
+}
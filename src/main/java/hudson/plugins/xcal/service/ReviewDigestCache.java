@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import hudson.Util;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.plugins.xcal.util.CommonUtil;
+import jenkins.model.Jenkins;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the digest of the last review posted to each patchset, so a rebuild that reports the same issues does
+ * not post the review again. The cache keeps the most recently used patchsets and is stored in
+ * {@code JENKINS_HOME/xcalscan-gerrit-review-digests.json}.
+ */
+@Slf4j
+public final class ReviewDigestCache {
+
+    public static final String FILE_NAME = "xcalscan-gerrit-review-digests.json";
+
+    /**
+     * Number of patchsets remembered, configurable with {@code -Dhudson.plugins.xcal.service.ReviewDigestCache.maxEntries}.
+     */
+    public static final int MAX_ENTRIES = Integer.getInteger(ReviewDigestCache.class.getName() + ".maxEntries", 1000);
+
+    private static final ReviewDigestCache INSTANCE = new ReviewDigestCache();
+
+    private final LinkedHashMap<String, String> digests = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private ReviewDigestCache() {
+    }
+
+    public static ReviewDigestCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 digest of the parts describing a review, each taken by its string form, see
+     * {@link ReviewMessageRenderer#addDigestParts}.
+     */
+    public static String digest(List<?> parts) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            for (Object part : parts) {
+                messageDigest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                messageDigest.update((byte) '\n');
+            }
+            return Util.toHexString(messageDigest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Unable to digest review", e);
+        }
+    }
+
+    /**
+     * Returns whether the review with this digest was already posted to the patchset of the job.
+     */
+    public synchronized boolean isDuplicate(ReviewJob job) {
+        return job.getDigest() != null && job.getDigest().equals(digests.get(key(job)));
+    }
+
+    /**
+     * Records that the review of the job was posted.
+     */
+    public synchronized void put(ReviewJob job) {
+        if (job.getDigest() == null || job.getDigest().equals(digests.put(key(job), job.getDigest()))) {
+            return;
+        }
+        try {
+            write();
+        } catch (IOException e) {
+            log.warn("[put] unable to persist review digests, {}: {}", e.getClass(), e.getMessage());
+        }
+    }
+
+    public synchronized int size() {
+        return digests.size();
+    }
+
+    /**
+     * Forgets the digests loaded into memory, leaving the stored file in place.
+     */
+    public synchronized void clear() {
+        digests.clear();
+    }
+
+    private void write() throws IOException {
+        File file = getFile();
+        File tmp = new File(file.getPath() + ".tmp");
+        CommonUtil.objectMapper.writeValue(tmp, digests);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    synchronized void load() {
+        File file = getFile();
+        if (!file.isFile()) {
+            return;
+        }
+        try {
+            Map<String, String> stored = CommonUtil.objectMapper.readValue(file, new TypeReference<LinkedHashMap<String, String>>() {
+            });
+            digests.putAll(stored);
+            log.info("[load] {} review digest(s) loaded", digests.size());
+        } catch (IOException e) {
+            log.warn("[load] unable to read {}, {}: {}", file, e.getClass(), e.getMessage());
+        }
+    }
+
+    private static File getFile() {
+        return new File(Jenkins.get().getRootDir(), FILE_NAME);
+    }
+
+    private static String key(ReviewJob job) {
+        return job.getServerName() + '/' + job.getChangeNumber() + '/' + job.getPatchSetNumber();
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void init() {
+        get().load();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A rendered review waiting to be posted to one Gerrit patchset. It only refers to the job, the build and the
+ * credential by name or ID, so it can be delivered after the build finished.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReviewJob {
+    String serverName;
+    String credentialId;
+    String changeNumber;
+    String patchSetNumber;
+    /**
+     * {@link hudson.model.Item#getFullName()} of the job, in whose context the credential is resolved once the build
+     * is gone.
+     */
+    String jobName;
+    /**
+     * {@link hudson.model.Run#getExternalizableId()} of the build that rendered the review.
+     */
+    String buildId;
+    /**
+     * Whether a post failing for a transient reason goes to the {@link GerritReviewOutbox} for a retry.
+     */
+    boolean retry;
+    /**
+     * Whether the job is dropped once a newer patchset of the change is published or in flight, see {@link ChangeCoalescer}.
+     */
+    boolean supersede;
+    /**
+     * {@link RenderedReview#getDigest()} of the rendered reviews, or null when duplicate reviews are posted anyway.
+     */
+    String digest;
+    /**
+     * Pause between two posts of the job, so that a review split into several messages does not flood Gerrit.
+     */
+    long pauseMillis;
+    @Builder.Default
+    List<ReviewInput> reviewInputs = new ArrayList<>();
+}
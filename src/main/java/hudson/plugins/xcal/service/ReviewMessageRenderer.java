@@ -0,0 +1,490 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import hudson.plugins.xcal.Messages;
+import hudson.plugins.xcal.action.XcalscanAnalysisAction;
+import hudson.plugins.xcal.payload.IssueDiff;
+import hudson.plugins.xcal.util.CommonUtil;
+import hudson.plugins.xcal.util.IssueRanking;
+import hudson.plugins.xcal.util.Localization;
+import hudson.plugins.xcal.util.VariableUtil;
+import org.apache.commons.lang3.StringUtils;
+
+import java.text.FieldPosition;
+import java.text.MessageFormat;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Renders the Gerrit review message of a scan for a set of locales.
+ * <p>
+ * Message templates are parsed once and copied per renderer, and every locale is written into its own pre-sized buffer
+ * during a single pass over the issue list, so rendering stays linear in the number of issues. With a budget, only
+ * the most important issues are listed and the size of every message is bounded.
+ * A renderer keeps per-build state and must not be shared between threads.
+ */
+public class ReviewMessageRenderer {
+
+    private static final String NEW = "NEW";
+    private static final String FIXED = "FIXED";
+    private static final int ESTIMATED_ROW_LENGTH = 256;
+    /**
+     * Bytes of a message kept free of issue rows for the summary of the issues not listed.
+     */
+    static final int OVERFLOW_RESERVE = 2048;
+    /**
+     * Smallest message size per locale, leaving room for issue rows beside the reserve for the overflow summary.
+     */
+    public static final int MIN_MESSAGE_BYTES = 2 * OVERFLOW_RESERVE;
+    private static final int OVERFLOW_GROUPS = 10;
+    private static final Map<String, String> SEVERITY_CHI;
+
+    static {
+        Map<String, String> severityMap = new HashMap<>();
+        severityMap.put("HIGH", "高");
+        severityMap.put("MEDIUM", "中");
+        severityMap.put("LOW", "低");
+        SEVERITY_CHI = Collections.unmodifiableMap(severityMap);
+    }
+
+    private final List<Locale> locales;
+    private final Templates[] templates;
+    private final FieldPosition fieldPosition = new FieldPosition(0);
+    private final Object[] rowArgs = new Object[10];
+    private RuleCatalog ruleCatalog;
+    private XcalscanAnalysisAction preparedFor;
+    private IssueSelection newIssues;
+    private IssueSelection fixedIssues;
+    private int maxIssues;
+    private int maxMessageBytes;
+    private boolean sharding;
+    private List<List<String>> shards;
+    private Object[] continuedArgs;
+    private Predicate<IssueDiff> issueFilter;
+    private IssueSelection selectedNewIssues;
+    private IssueSelection selectedFixedIssues;
+
+    public ReviewMessageRenderer(List<Locale> locales) {
+        this.locales = new ArrayList<>(locales);
+        this.templates = new Templates[this.locales.size()];
+        for (int i = 0; i < this.locales.size(); i++) {
+            this.templates[i] = new Templates(this.locales.get(i));
+        }
+    }
+
+    public List<Locale> getLocales() {
+        return Collections.unmodifiableList(locales);
+    }
+
+    /**
+     * Restricts the issues listed in messages and comments to those matching the filter. Summary counts are not affected.
+     */
+    public void setIssueFilter(Predicate<IssueDiff> issueFilter) {
+        this.issueFilter = issueFilter;
+        this.preparedFor = null;
+    }
+
+    /**
+     * Renders issues already selected elsewhere instead of those recorded in the action, e.g. issues streamed from the
+     * workspace on the agent. The selections carry the number of issues they left out.
+     */
+    void setSelections(IssueSelection newIssues, IssueSelection fixedIssues) {
+        this.selectedNewIssues = newIssues;
+        this.selectedFixedIssues = fixedIssues;
+        this.preparedFor = null;
+    }
+
+    /**
+     * Bounds the issues listed in each section of a message. When more issues are reported, the most important ones
+     * are listed and the rest are summarized by rule and by file, with a link to the full report.
+     *
+     * @param maxIssues       maximum number of issues listed per section, zero or less for no limit
+     * @param maxMessageBytes maximum UTF-8 size of a message, zero or less for no limit
+     */
+    public void setBudget(int maxIssues, int maxMessageBytes) {
+        this.maxIssues = maxIssues;
+        this.maxMessageBytes = maxMessageBytes;
+        this.preparedFor = null;
+    }
+
+    /**
+     * Continues issue rows that do not fit into a message in another message, instead of summarizing them.
+     * Messages are split between issue rows, so every message but one holding a single huge row stays within
+     * the maximum message size of the budget.
+     */
+    public void setSharding(boolean sharding) {
+        this.sharding = sharding;
+    }
+
+    /**
+     * Renders the review messages of every locale, in the order the locales were given. A locale has more than one
+     * message only when sharding is enabled and its issues do not fit into one message.
+     */
+    public Map<Locale, List<String>> render(XcalscanAnalysisAction xcalscanAnalysisAction) {
+        prepare(xcalscanAnalysisAction);
+
+        StringBuffer[] buffers = new StringBuffer[locales.size()];
+        int[] bytes = new int[locales.size()];
+        int rows = newIssues.getIssues().size() + fixedIssues.getIssues().size();
+        int capacity = 1024 + ESTIMATED_ROW_LENGTH * rows;
+        if (sharding && maxMessageBytes > 0) {
+            capacity = Math.min(capacity, maxMessageBytes);
+        }
+        shards = new ArrayList<>(locales.size());
+        continuedArgs = new Object[]{xcalscanAnalysisAction.getProjectName(), xcalscanAnalysisAction.getCommitId(), null};
+        for (int i = 0; i < buffers.length; i++) {
+            shards.add(new ArrayList<>());
+            buffers[i] = new StringBuffer(capacity);
+            writeSummary(buffers[i], templates[i], xcalscanAnalysisAction);
+            bytes[i] = utf8Length(buffers[i], 0, buffers[i].length());
+        }
+        String reportUrl = StringUtils.defaultIfBlank(xcalscanAnalysisAction.getDsrUrl(), xcalscanAnalysisAction.getUrl());
+        writeSection(buffers, bytes, newIssues, true, StringUtils.defaultIfBlank(xcalscanAnalysisAction.getDsrUrlNew(), reportUrl));
+        writeSection(buffers, bytes, fixedIssues, false, StringUtils.defaultIfBlank(xcalscanAnalysisAction.getDsrUrlFixed(), reportUrl));
+
+        Map<Locale, List<String>> result = new LinkedHashMap<>();
+        for (int i = 0; i < buffers.length; i++) {
+            List<String> messages = shards.get(i);
+            messages.add(buffers[i].toString());
+            result.put(locales.get(i), messages);
+        }
+        shards = null;
+        return result;
+    }
+
+    /**
+     * Adds what the review of the action reports to the parts of its digest: the summary counts of the scan, the
+     * budget, and per section the number of issues, the sorted checksums of the issues listed and the counts of those
+     * left out. Report links are not part of it, as every scan of a patchset links to its own report.
+     */
+    public void addDigestParts(XcalscanAnalysisAction xcalscanAnalysisAction, List<Object> parts) {
+        prepare(xcalscanAnalysisAction);
+        Collections.addAll(parts, xcalscanAnalysisAction.getRisk(), xcalscanAnalysisAction.getIssuesCount(),
+                xcalscanAnalysisAction.getDefiniteCount(), xcalscanAnalysisAction.getHighPriorityCount(),
+                xcalscanAnalysisAction.getMediumPriorityCount(), xcalscanAnalysisAction.getLowPriorityCount(),
+                xcalscanAnalysisAction.getNewIssueCount(), xcalscanAnalysisAction.getFixedIssueCount());
+        Collections.addAll(parts, locales, maxIssues, maxMessageBytes, sharding);
+        for (IssueSelection section : Arrays.asList(newIssues, fixedIssues)) {
+            List<String> checksums = new ArrayList<>(section.getIssues().size());
+            for (IssueDiff issueDiff : section.getIssues()) {
+                checksums.add(StringUtils.defaultString(StringUtils.defaultIfBlank(issueDiff.getChecksum(), issueDiff.getIssueKey())));
+            }
+            Collections.sort(checksums);
+            Collections.addAll(parts, section.getTotal(), checksums,
+                    new TreeMap<>(section.getOmittedByRule()), new TreeMap<>(section.getOmittedByFile()));
+        }
+    }
+
+    /**
+     * Returns the number of new and fixed issues the review of the action reports, listed or not.
+     */
+    public int getSelected(XcalscanAnalysisAction xcalscanAnalysisAction) {
+        prepare(xcalscanAnalysisAction);
+        return newIssues.getTotal() + fixedIssues.getTotal();
+    }
+
+    /**
+     * Renders the new issues of the scan as inline comments, grouped by the patchset file they are anchored on.
+     * Issues in files the patchset does not touch are left out, as Gerrit rejects comments on such files.
+     * When there are more issues than {@code maxComments}, the most important ones are kept.
+     *
+     * @param patchSetFiles files touched by the patchset, as reported by Gerrit
+     * @param maxComments   maximum number of comments, zero or less for no limit
+     */
+    public Map<String, List<ReviewInput.CommentInput>> renderComments(XcalscanAnalysisAction xcalscanAnalysisAction, Collection<String> patchSetFiles, int maxComments) {
+        prepare(xcalscanAnalysisAction);
+        Map<String, String> fileIndex = CommonUtil.indexPathSuffixes(patchSetFiles);
+
+        List<IssueDiff> anchored = new ArrayList<>();
+        for (IssueDiff issueDiff : newIssues.getIssues()) {
+            if (findFile(fileIndex, issueDiff) != null && issueDiff.getLineNo() != null && issueDiff.getLineNo() > 0) {
+                anchored.add(issueDiff);
+            }
+        }
+        anchored.sort(IssueRanking.MOST_IMPORTANT_FIRST);
+        int limit = maxComments > 0 ? Math.min(maxComments, anchored.size()) : anchored.size();
+
+        Map<String, List<ReviewInput.CommentInput>> comments = new TreeMap<>();
+        StringBuffer buffer = new StringBuffer(ESTIMATED_ROW_LENGTH * locales.size());
+        for (IssueDiff issueDiff : anchored.subList(0, limit)) {
+            ReviewInput.CommentInput comment = new ReviewInput.CommentInput();
+            comment.path = findFile(fileIndex, issueDiff);
+            comment.line = issueDiff.getLineNo();
+            comment.message = writeComment(buffer, issueDiff);
+            comments.computeIfAbsent(comment.path, file -> new ArrayList<>()).add(comment);
+        }
+        for (List<ReviewInput.CommentInput> fileComments : comments.values()) {
+            fileComments.sort(Comparator.comparing((ReviewInput.CommentInput comment) -> comment.line));
+        }
+        return comments;
+    }
+
+    private static String findFile(Map<String, String> fileIndex, IssueDiff issueDiff) {
+        return fileIndex.get(StringUtils.removeStart(issueDiff.getRelativePath(), "/"));
+    }
+
+    /**
+     * Splits the issues into new and fixed ones and looks up the rules of those listed, once per action.
+     */
+    private void prepare(XcalscanAnalysisAction xcalscanAnalysisAction) {
+        if (preparedFor == xcalscanAnalysisAction) {
+            return;
+        }
+        if (selectedNewIssues != null) {
+            this.newIssues = selectedNewIssues;
+            this.fixedIssues = selectedFixedIssues;
+        } else {
+            List<IssueDiff> issueDiffs = xcalscanAnalysisAction.getIssueDiffs() != null ? xcalscanAnalysisAction.getIssueDiffs() : Collections.emptyList();
+            this.newIssues = new IssueSelection(maxIssues);
+            this.fixedIssues = new IssueSelection(maxIssues);
+            for (IssueDiff issueDiff : issueDiffs) {
+                if (issueFilter != null && !issueFilter.test(issueDiff)) {
+                    continue;
+                }
+                if (StringUtils.equalsIgnoreCase(NEW, issueDiff.getType())) {
+                    newIssues.add(issueDiff);
+                } else if (StringUtils.equalsIgnoreCase(FIXED, issueDiff.getType())) {
+                    fixedIssues.add(issueDiff);
+                }
+            }
+        }
+        List<IssueDiff> reported = new ArrayList<>(newIssues.getIssues().size() + fixedIssues.getIssues().size());
+        reported.addAll(newIssues.getIssues());
+        reported.addAll(fixedIssues.getIssues());
+        this.ruleCatalog = RuleCatalog.of(xcalscanAnalysisAction, reported);
+        this.preparedFor = xcalscanAnalysisAction;
+    }
+
+    private void writeSummary(StringBuffer buffer, Templates template, XcalscanAnalysisAction xcalscanAnalysisAction) {
+        template.result.format(new Object[]{
+                xcalscanAnalysisAction.getProjectName(),
+                xcalscanAnalysisAction.getCommitId(),
+                xcalscanAnalysisAction.getRisk(),
+                xcalscanAnalysisAction.getIssuesCount(),
+                xcalscanAnalysisAction.getDefiniteCount(),
+                xcalscanAnalysisAction.getHighPriorityCount(),
+                xcalscanAnalysisAction.getMediumPriorityCount(),
+                xcalscanAnalysisAction.getLowPriorityCount(),
+                xcalscanAnalysisAction.getUrl()}, buffer, fieldPosition);
+        if (StringUtils.isNotBlank(xcalscanAnalysisAction.getBaselineCommitId())) {
+            buffer.append('\n');
+            template.dsr.format(new Object[]{
+                    xcalscanAnalysisAction.getNewIssueCount(),
+                    xcalscanAnalysisAction.getFixedIssueCount(),
+                    xcalscanAnalysisAction.getBaselineCommitId(),
+                    xcalscanAnalysisAction.getDsrUrl()}, buffer, fieldPosition);
+        }
+    }
+
+    private void writeSection(StringBuffer[] buffers, int[] bytes, IssueSelection section, boolean isNew, String reportUrl) {
+        if (section.isEmpty()) {
+            return;
+        }
+        Object[] countArgs = {section.getTotal()};
+        for (int i = 0; i < buffers.length; i++) {
+            int start = buffers[i].length();
+            buffers[i].append('\n');
+            (isNew ? templates[i].dsrNew : templates[i].dsrFixed).format(countArgs, buffers[i], fieldPosition);
+            buffers[i].append('\n');
+            bytes[i] += utf8Length(buffers[i], start, buffers[i].length());
+        }
+        List<IssueDiff> issueDiffs = section.getIssues();
+        // index of the first row each locale could not fit into its message
+        int[] listed = new int[buffers.length];
+        Arrays.fill(listed, issueDiffs.size());
+        int[] shardRows = new int[buffers.length];
+        for (int row = 0; row < issueDiffs.size(); row++) {
+            IssueDiff issueDiff = issueDiffs.get(row);
+            RuleCatalog.Rule rule = ruleCatalog.getRule(issueDiff.getIssueCode());
+            rowArgs[1] = getSeq(issueDiff);
+            rowArgs[2] = issueDiff.getIssueCode();
+            rowArgs[4] = ruleCatalog.getRuleSetDisplayName(issueDiff);
+            rowArgs[5] = issueDiff.getRelativePath();
+            rowArgs[6] = String.valueOf(issueDiff.getLineNo());
+            rowArgs[7] = issueDiff.getFunctionName();
+            rowArgs[8] = issueDiff.getVariableName();
+            rowArgs[9] = getPathCount(issueDiff);
+            for (int i = 0; i < buffers.length; i++) {
+                if (listed[i] < issueDiffs.size()) {
+                    continue;
+                }
+                int start = buffers[i].length();
+                rowArgs[0] = templates[i].chinese ? SEVERITY_CHI.get(issueDiff.getSeverity()) : issueDiff.getSeverity();
+                rowArgs[3] = getRuleName(rule, issueDiff, templates[i].chinese);
+                templates[i].dsrDetail.format(rowArgs, buffers[i], fieldPosition);
+                buffers[i].append('\n');
+                int rowBytes = utf8Length(buffers[i], start, buffers[i].length());
+                if (maxMessageBytes <= 0 || bytes[i] + rowBytes <= maxMessageBytes - OVERFLOW_RESERVE) {
+                    bytes[i] += rowBytes;
+                    shardRows[i]++;
+                } else if (!sharding) {
+                    buffers[i].setLength(start);
+                    listed[i] = row;
+                } else if (shardRows[i] == 0) {
+                    // a single row larger than a message, it cannot be split on an issue boundary
+                    bytes[i] += rowBytes;
+                    shardRows[i]++;
+                } else {
+                    String rowText = buffers[i].substring(start);
+                    buffers[i].setLength(start);
+                    startShard(i, buffers[i], isNew, countArgs);
+                    buffers[i].append(rowText);
+                    bytes[i] = utf8Length(buffers[i], 0, buffers[i].length());
+                    shardRows[i] = 1;
+                }
+            }
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            if (section.getOmitted() > 0 || listed[i] < issueDiffs.size()) {
+                int start = buffers[i].length();
+                writeOverflow(buffers[i], templates[i], section, issueDiffs.subList(listed[i], issueDiffs.size()), reportUrl);
+                bytes[i] += utf8Length(buffers[i], start, buffers[i].length());
+            }
+        }
+    }
+
+    /**
+     * Completes the current message of a locale and continues the section in a new one.
+     */
+    private void startShard(int locale, StringBuffer buffer, boolean isNew, Object[] countArgs) {
+        List<String> messages = shards.get(locale);
+        messages.add(buffer.toString());
+        buffer.setLength(0);
+        continuedArgs[2] = messages.size() + 1;
+        templates[locale].continued.format(continuedArgs, buffer, fieldPosition);
+        buffer.append('\n');
+        (isNew ? templates[locale].dsrNew : templates[locale].dsrFixed).format(countArgs, buffer, fieldPosition);
+        buffer.append('\n');
+    }
+
+    /**
+     * Summarizes the issues of a section that are not listed by rule and by file, largest groups first.
+     */
+    private void writeOverflow(StringBuffer buffer, Templates template, IssueSelection section, List<IssueDiff> unlisted, String reportUrl) {
+        Map<String, Integer> byRule = new HashMap<>(section.getOmittedByRule());
+        Map<String, Integer> byFile = new HashMap<>(section.getOmittedByFile());
+        for (IssueDiff issueDiff : unlisted) {
+            IssueSelection.omit(issueDiff, byRule, byFile);
+        }
+        template.overflow.format(new Object[]{section.getOmitted() + unlisted.size(), reportUrl}, buffer, fieldPosition);
+        buffer.append('\n');
+        writeOverflowGroups(buffer, template, template.overflowRules, byRule);
+        writeOverflowGroups(buffer, template, template.overflowFiles, byFile);
+    }
+
+    private void writeOverflowGroups(StringBuffer buffer, Templates template, String title, Map<String, Integer> counts) {
+        buffer.append(title).append('\n');
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(OVERFLOW_GROUPS)
+                .forEach(group -> {
+                    template.overflowRow.format(new Object[]{group.getKey(), group.getValue()}, buffer, fieldPosition);
+                    buffer.append('\n');
+                });
+    }
+
+    private static int utf8Length(CharSequence chars, int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = chars.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private String writeComment(StringBuffer buffer, IssueDiff issueDiff) {
+        buffer.setLength(0);
+        RuleCatalog.Rule rule = ruleCatalog.getRule(issueDiff.getIssueCode());
+        rowArgs[1] = getSeq(issueDiff);
+        rowArgs[2] = issueDiff.getIssueCode();
+        rowArgs[4] = ruleCatalog.getRuleSetDisplayName(issueDiff);
+        rowArgs[5] = issueDiff.getFunctionName();
+        rowArgs[6] = issueDiff.getVariableName();
+        rowArgs[7] = getPathCount(issueDiff);
+        rowArgs[8] = null;
+        rowArgs[9] = null;
+        for (int i = 0; i < templates.length; i++) {
+            if (i > 0) {
+                buffer.append('\n');
+            }
+            rowArgs[0] = templates[i].chinese ? SEVERITY_CHI.get(issueDiff.getSeverity()) : issueDiff.getSeverity();
+            rowArgs[3] = getRuleName(rule, issueDiff, templates[i].chinese);
+            templates[i].comment.format(rowArgs, buffer, fieldPosition);
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Returns the issue number, or null for a record without issue details, e.g. a partial line of an issues file.
+     */
+    private static String getSeq(IssueDiff issueDiff) {
+        return issueDiff.getIssue() != null ? issueDiff.getIssue().getSeq() : null;
+    }
+
+    /**
+     * Returns the number of trace sets of the issue, read at render time so the issues of the action, which may be
+     * those of the build, are never modified.
+     */
+    private static String getPathCount(IssueDiff issueDiff) {
+        return issueDiff.getIssue() != null ? issueDiff.getIssue().getAttributeValue(VariableUtil.IssueAttributeName.NO_OF_TRACE_SET) : null;
+    }
+
+    private static String getRuleName(RuleCatalog.Rule rule, IssueDiff issueDiff, boolean chinese) {
+        String name = rule != null ? rule.getName(chinese) : null;
+        return name != null ? name : issueDiff.getIssueName();
+    }
+
+    /**
+     * The parsed message templates of one locale.
+     */
+    private static final class Templates {
+        private static final String BUNDLE = Messages.class.getName();
+        private static final String MESSAGE_PREFIX = "XcalscanGerritPublisher.review.message.";
+
+        private final boolean chinese;
+        private final MessageFormat result;
+        private final MessageFormat dsr;
+        private final MessageFormat dsrNew;
+        private final MessageFormat dsrFixed;
+        private final MessageFormat dsrDetail;
+        private final MessageFormat comment;
+        private final MessageFormat overflow;
+        private final String overflowRules;
+        private final String overflowFiles;
+        private final MessageFormat overflowRow;
+        private final MessageFormat continued;
+
+        private Templates(Locale locale) {
+            this.chinese = locale.equals(Locale.SIMPLIFIED_CHINESE);
+            this.result = template(locale, "result");
+            this.dsr = template(locale, "dsr");
+            this.dsrNew = template(locale, "dsr.new");
+            this.dsrFixed = template(locale, "dsr.fixed");
+            this.dsrDetail = template(locale, "dsr.detail");
+            this.comment = Localization.getTemplate(BUNDLE, locale, "XcalscanGerritPublisher.review.comment");
+            this.overflow = template(locale, "overflow");
+            this.overflowRules = Localization.getString(BUNDLE, locale, MESSAGE_PREFIX + "overflow.rules");
+            this.overflowFiles = Localization.getString(BUNDLE, locale, MESSAGE_PREFIX + "overflow.files");
+            this.overflowRow = template(locale, "overflow.row");
+            this.continued = template(locale, "continued");
+        }
+
+        private static MessageFormat template(Locale locale, String message) {
+            return Localization.getTemplate(BUNDLE, locale, MESSAGE_PREFIX + message);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import hudson.plugins.xcal.action.XcalscanAnalysisAction;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * How the review of a build is rendered into the messages posted to Gerrit. The options are serializable, so the
+ * same rendering runs on the controller or on the agent of the build.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class ReviewRenderOptions implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final String LOCALE_SEPARATOR = "\n\n----\n\n";
+
+    @Builder.Default
+    List<Locale> locales = new ArrayList<>();
+    boolean combineLocales;
+    int maxIssues;
+    int maxMessageBytes;
+    boolean shardMessages;
+    int maxInlineComments;
+    /**
+     * Lines changed by the patchset, or null to report issues anywhere.
+     */
+    ChangedLines changedLines;
+    int contextLines;
+
+    /**
+     * Renders the review messages, and the inline comments on the first review, along with the digest of what they
+     * report.
+     *
+     * @param streamed      issues already selected while streaming the issues file, or null for the issues of the action
+     * @param patchSetFiles files touched by the patchset, or null to render no inline comments
+     */
+    public RenderedReview render(XcalscanAnalysisAction xcalscanAnalysisAction, IssueDiffStreamCallable.Result streamed, Collection<String> patchSetFiles) {
+        ReviewMessageRenderer renderer = new ReviewMessageRenderer(locales);
+        // combined locales share one message, including the separators between them
+        int sharing = combineLocales ? renderer.getLocales().size() : 1;
+        int messageBytes = maxMessageBytes > 0 ? Math.max(maxMessageBytes, getMinMessageBytes(sharing)) : maxMessageBytes;
+        renderer.setBudget(getIssueLimit(), sharing > 1 && messageBytes > 0
+                ? (messageBytes - LOCALE_SEPARATOR.length() * (sharing - 1)) / sharing : messageBytes);
+        renderer.setSharding(shardMessages);
+        if (streamed != null) {
+            renderer.setSelections(streamed.getNewIssues(), streamed.getFixedIssues());
+        } else if (changedLines != null) {
+            renderer.setIssueFilter(issueDiff -> changedLines.contains(issueDiff, contextLines));
+        }
+        Map<Locale, List<String>> reviewMessages = renderer.render(xcalscanAnalysisAction);
+        List<ReviewInput> reviewInputs = new ArrayList<>();
+        if (combineLocales) {
+            // the n-th messages of all locales are posted together
+            int shards = reviewMessages.values().stream().mapToInt(List::size).max().orElse(0);
+            for (int shard = 0; shard < shards; shard++) {
+                List<String> parts = new ArrayList<>();
+                for (List<String> messages : reviewMessages.values()) {
+                    if (shard < messages.size()) {
+                        parts.add(messages.get(shard));
+                    }
+                }
+                reviewInputs.add(new ReviewInput().message(String.join(LOCALE_SEPARATOR, parts)));
+            }
+        } else {
+            for (List<String> messages : reviewMessages.values()) {
+                for (String reviewMessage : messages) {
+                    reviewInputs.add(new ReviewInput().message(reviewMessage));
+                }
+            }
+        }
+        if (patchSetFiles != null && !reviewInputs.isEmpty()) {
+            reviewInputs.get(0).comments = renderer.renderComments(xcalscanAnalysisAction, patchSetFiles, maxInlineComments);
+        }
+        List<Object> digestParts = new ArrayList<>();
+        renderer.addDigestParts(xcalscanAnalysisAction, digestParts);
+        Collections.addAll(digestParts, combineLocales, patchSetFiles != null ? maxInlineComments : null);
+        return new RenderedReview(reviewInputs, ReviewDigestCache.digest(digestParts), renderer.getSelected(xcalscanAnalysisAction));
+    }
+
+    /**
+     * Maximum number of issues listed per section. Sharded messages list every issue, so no issue is lost to the
+     * overflow summary.
+     */
+    public int getIssueLimit() {
+        return shardMessages ? 0 : maxIssues;
+    }
+
+    /**
+     * Smallest maximum message size when the locales share a message, as every locale needs
+     * {@link ReviewMessageRenderer#MIN_MESSAGE_BYTES}. Smaller limits are raised to it, since they would list no
+     * issue at all, or post every issue on its own when messages are sharded.
+     */
+    public static int getMinMessageBytes(int sharingLocales) {
+        int locales = Math.max(1, sharingLocales);
+        return ReviewMessageRenderer.MIN_MESSAGE_BYTES * locales + LOCALE_SEPARATOR.length() * (locales - 1);
+    }
+
+    /**
+     * Number of reviews rendered when no message had to be split.
+     */
+    public int getUnshardedCount() {
+        return combineLocales ? 1 : locales.size();
+    }
+}
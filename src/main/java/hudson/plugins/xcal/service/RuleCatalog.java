@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import hudson.plugins.xcal.action.XcalscanAnalysisAction;
+import hudson.plugins.xcal.payload.IssueDiff;
+import hudson.plugins.xcal.payload.IssueDto;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.sf.json.JSONException;
+import net.sf.json.JSONNull;
+import net.sf.json.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rule names and rule set display names of a scan, resolved once from the untyped rule info of the scan result.
+ * <p>
+ * Catalogs are immutable and shared process wide: builds whose issues come from the same rule set versions reuse
+ * the catalog compiled by the first of them, so rendering an issue row costs hash lookups instead of JSON parsing.
+ * As the rule info of a scan may only describe the rules it hit, rules a later build needs and the shared catalog
+ * lacks are compiled from that build's rule info and merged into a new shared catalog.
+ */
+@Slf4j
+public final class RuleCatalog {
+
+    /**
+     * Number of catalogs kept, configurable with {@code -Dhudson.plugins.xcal.service.RuleCatalog.maxCached}.
+     */
+    public static final int MAX_CACHED = Integer.getInteger(RuleCatalog.class.getName() + ".maxCached", 32);
+
+    private static final String RULE_NAME_ENG = "rule_name_eng";
+    private static final String RULE_NAME_CHI = "rule_name_chi";
+
+    private static final Cache<String, RuleCatalog> CATALOGS = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CACHED)
+            .expireAfterAccess(1, TimeUnit.DAYS)
+            .build();
+
+    private final Map<String, Rule> rules;
+    private final Map<String, String> ruleSetDisplayNames;
+
+    private RuleCatalog(Map<String, Rule> rules, Map<String, String> ruleSetDisplayNames) {
+        this.rules = rules;
+        this.ruleSetDisplayNames = ruleSetDisplayNames;
+    }
+
+    /**
+     * Returns the catalog of the issues. The rule info of the action is only read when no catalog of the same rule set
+     * versions is cached yet, when the cached catalog lacks a rule of the issues, or when an issue carries no rule set
+     * version.
+     */
+    public static RuleCatalog of(XcalscanAnalysisAction xcalscanAnalysisAction, Collection<IssueDiff> issueDiffs) {
+        String versionKey = versionKey(issueDiffs);
+        if (versionKey == null) {
+            return compile(xcalscanAnalysisAction.getRuleInfo(), issueDiffs);
+        }
+        RuleCatalog catalog;
+        try {
+            catalog = CATALOGS.get(versionKey, () -> {
+                log.debug("[of] compile rule catalog of {}", versionKey);
+                return compile(xcalscanAnalysisAction.getRuleInfo(), issueDiffs);
+            });
+        } catch (ExecutionException e) {
+            log.warn("[of] unable to compile rule catalog of {}, {}: {}", versionKey, e.getClass(), e.getMessage());
+            return compile(null, issueDiffs);
+        }
+        Set<String> missing = catalog.missingCodes(issueDiffs);
+        if (missing.isEmpty()) {
+            return catalog;
+        }
+        Map<String, Rule> added = compileRules(xcalscanAnalysisAction.getRuleInfo(), missing);
+        if (added.isEmpty()) {
+            // the rule info of this scan does not describe them either
+            return catalog;
+        }
+        log.debug("[of] add {} rule(s) to rule catalog of {}", added.size(), versionKey);
+        RuleCatalog merged = catalog.merge(added, issueDiffs);
+        CATALOGS.put(versionKey, merged);
+        return merged;
+    }
+
+    static RuleCatalog compile(JSONObject ruleInfo, Collection<IssueDiff> issueDiffs) {
+        Map<String, String> ruleSetDisplayNames = new HashMap<>();
+        addRuleSetDisplayNames(ruleSetDisplayNames, issueDiffs);
+        return new RuleCatalog(compileRules(ruleInfo, null), ruleSetDisplayNames);
+    }
+
+    /**
+     * Compiles the rules of the given codes, or all rules of the rule info when {@code codes} is null.
+     */
+    private static Map<String, Rule> compileRules(JSONObject ruleInfo, Set<String> codes) {
+        Map<String, Rule> rules = new HashMap<>();
+        if (ruleInfo == null) {
+            return rules;
+        }
+        for (Object code : codes != null ? codes : ruleInfo.keySet()) {
+            Object value = ruleInfo.get(code);
+            if (value == null) {
+                continue;
+            }
+            try {
+                JSONObject rule = JSONObject.fromObject(value);
+                rules.put(code.toString(), new Rule(code.toString(), getString(rule, RULE_NAME_ENG), getString(rule, RULE_NAME_CHI)));
+            } catch (JSONException e) {
+                log.debug("[compile] ignore rule {}, {}", code, e.getMessage());
+            }
+        }
+        return rules;
+    }
+
+    private static void addRuleSetDisplayNames(Map<String, String> ruleSetDisplayNames, Collection<IssueDiff> issueDiffs) {
+        for (IssueDiff issueDiff : issueDiffs) {
+            IssueDto.RuleInformation ruleInformation = ruleInformation(issueDiff);
+            if (ruleInformation != null && ruleInformation.getRuleSetDisplayName() != null) {
+                ruleSetDisplayNames.putIfAbsent(ruleInformation.getRuleSet(), ruleInformation.getRuleSetDisplayName().toUpperCase());
+            }
+        }
+    }
+
+    private Set<String> missingCodes(Collection<IssueDiff> issueDiffs) {
+        Set<String> missing = new HashSet<>();
+        for (IssueDiff issueDiff : issueDiffs) {
+            String code = issueDiff.getIssueCode();
+            if (code != null && !rules.containsKey(code)) {
+                missing.add(code);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Returns a new catalog holding the rules of this one and the added ones.
+     */
+    private RuleCatalog merge(Map<String, Rule> added, Collection<IssueDiff> issueDiffs) {
+        Map<String, Rule> mergedRules = new HashMap<>(rules);
+        mergedRules.putAll(added);
+        Map<String, String> mergedDisplayNames = new HashMap<>(ruleSetDisplayNames);
+        addRuleSetDisplayNames(mergedDisplayNames, issueDiffs);
+        return new RuleCatalog(mergedRules, mergedDisplayNames);
+    }
+
+    /**
+     * Returns the rule of the code, or null when the rule info does not describe it.
+     */
+    public Rule getRule(String code) {
+        return code != null ? rules.get(code) : null;
+    }
+
+    /**
+     * Returns the upper case display name of the rule set an issue belongs to.
+     */
+    public String getRuleSetDisplayName(IssueDiff issueDiff) {
+        IssueDto.RuleInformation ruleInformation = ruleInformation(issueDiff);
+        if (ruleInformation == null) {
+            return null;
+        }
+        String displayName = ruleSetDisplayNames.get(ruleInformation.getRuleSet());
+        if (displayName == null && ruleInformation.getRuleSetDisplayName() != null) {
+            displayName = ruleInformation.getRuleSetDisplayName().toUpperCase();
+        }
+        return displayName;
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * Identifies the rule sets of the issues, e.g. {@code BUILTIN:1.0,CERT:2.1}. Returns null when an issue does not
+     * tell its rule set version, in which case the catalog is not shared.
+     */
+    private static String versionKey(Collection<IssueDiff> issueDiffs) {
+        Set<String> versions = new TreeSet<>();
+        for (IssueDiff issueDiff : issueDiffs) {
+            IssueDto.RuleInformation ruleInformation = ruleInformation(issueDiff);
+            if (ruleInformation == null || ruleInformation.getRuleSet() == null || ruleInformation.getRuleSetVersion() == null) {
+                return null;
+            }
+            versions.add(ruleInformation.getRuleSet() + ':' + ruleInformation.getRuleSetVersion());
+        }
+        return versions.isEmpty() ? null : String.join(",", versions);
+    }
+
+    private static IssueDto.RuleInformation ruleInformation(IssueDiff issueDiff) {
+        return issueDiff.getIssue() != null ? issueDiff.getIssue().getRuleInformation() : null;
+    }
+
+    private static String getString(JSONObject json, String key) {
+        Object value = json.get(key);
+        return value != null && !(value instanceof JSONNull) ? value.toString() : null;
+    }
+
+    /**
+     * A rule with its names in the locales reviews are rendered in.
+     */
+    @Getter
+    @AllArgsConstructor
+    public static final class Rule {
+        private final String code;
+        private final String englishName;
+        private final String chineseName;
+
+        public String getName(boolean chinese) {
+            return chinese ? chineseName : englishName;
+        }
+    }
+}
@@ -8,13 +8,26 @@ package hudson.plugins.xcal.util;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.filter.FilteringGeneratorDelegate;
+import com.fasterxml.jackson.core.filter.TokenFilter;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.helpers.MessageFormatter;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 @Slf4j
 public final class CommonUtil {
     public static final ObjectMapper objectMapper = new ObjectMapper();
@@ -50,4 +63,65 @@ public final class CommonUtil {
         }
         return result;
     }
+
+    /**
+     * Converts an object into another type with the same JSON shape, e.g. the same class loaded by another class loader.
+     * The intermediate form is a token buffer, so the whole object is never rendered into one JSON string.
+     *
+     * @param excludedProperties top level properties left out of the conversion, they are not buffered either
+     */
+    public static <T> T convertObject(Object input, Class<T> type, String... excludedProperties) throws IOException {
+        TokenBuffer buffer = new TokenBuffer(objectMapper, false);
+        JsonGenerator generator = excludedProperties.length == 0 ? buffer
+                : new FilteringGeneratorDelegate(buffer, new PropertyExclusion(excludedProperties), true, true);
+        objectMapper.writeValue(generator, input);
+        try (JsonParser parser = buffer.asParser()) {
+            return objectMapper.readValue(parser, type);
+        }
+    }
+
+    /**
+     * Drops the given properties of the top level object and keeps everything else.
+     */
+    private static final class PropertyExclusion extends TokenFilter {
+        private final Set<String> excluded;
+
+        private PropertyExclusion(String... excluded) {
+            this.excluded = new HashSet<>(Arrays.asList(excluded));
+        }
+
+        @Override
+        public TokenFilter includeProperty(String name) {
+            return excluded.contains(name) ? null : TokenFilter.INCLUDE_ALL;
+        }
+    }
+
+    /**
+     * Maps every path suffix of the given files to its file, so that a path relative to a sub directory of the
+     * repository, as found in scan results, still resolves to the repository file. A suffix shared by several files,
+     * e.g. {@code foo.c} of {@code a/foo.c} and {@code b/foo.c}, is left out, as either pick could be wrong; a full
+     * path always resolves to itself.
+     */
+    public static Map<String, String> indexPathSuffixes(Collection<String> files) {
+        Map<String, String> index = new HashMap<>();
+        for (String file : files) {
+            index.put(file, file);
+        }
+        Set<String> ambiguous = new HashSet<>();
+        for (String file : files) {
+            for (int slash = file.indexOf('/'); slash >= 0; slash = file.indexOf('/', slash + 1)) {
+                String suffix = file.substring(slash + 1);
+                String current = index.get(suffix);
+                if (current == null) {
+                    if (!ambiguous.contains(suffix)) {
+                        index.put(suffix, file);
+                    }
+                } else if (!current.equals(file) && !current.equals(suffix)) {
+                    index.remove(suffix);
+                    ambiguous.add(suffix);
+                }
+            }
+        }
+        return index;
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.util;
+
+import hudson.plugins.xcal.payload.IssueDiff;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.Comparator;
+
+/**
+ * Orders issues by how urgently a reviewer should look at them: severity first, then certainty, then likelihood.
+ */
+public final class IssueRanking {
+
+    /**
+     * Most important issue first.
+     */
+    public static final Comparator<IssueDiff> MOST_IMPORTANT_FIRST = Comparator
+            .comparingInt(IssueRanking::severityRank)
+            .thenComparingInt(IssueRanking::certaintyRank)
+            .thenComparingInt(IssueRanking::likelihoodRank)
+            .reversed();
+
+    private IssueRanking() {
+    }
+
+    public static int severityRank(IssueDiff issueDiff) {
+        String severity = StringUtils.upperCase(issueDiff.getSeverity());
+        if (severity == null) {
+            return 0;
+        }
+        switch (severity) {
+            case "HIGH":
+                return 3;
+            case "MEDIUM":
+                return 2;
+            case "LOW":
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    public static int certaintyRank(IssueDiff issueDiff) {
+        String certainty = StringUtils.upperCase(issueDiff.getCertainty());
+        return StringUtils.equalsAny(certainty, "D", "DEFINITE") ? 1 : 0;
+    }
+
+    public static int likelihoodRank(IssueDiff issueDiff) {
+        String likelihood = StringUtils.upperCase(issueDiff.getLikelihood());
+        if (likelihood == null) {
+            return 0;
+        }
+        switch (likelihood) {
+            case "LIKELY":
+                return 3;
+            case "PROBABLE":
+                return 2;
+            case "UNLIKELY":
+                return 1;
+            default:
+                return 0;
+        }
+    }
+}
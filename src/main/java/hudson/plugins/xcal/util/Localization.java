@@ -1,18 +1,31 @@
 package hudson.plugins.xcal.util;
 
+import java.text.MessageFormat;
 import java.util.Locale;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * Looks up localized strings. Resource bundles and parsed message templates are cached per base name, locale and key,
+ * so formatting the same template for every issue of every build neither looks up the bundle nor parses the pattern
+ * again.
+ */
 public final class Localization {
 
     public static final String MESSAGES = "messages";
 
+    private static final ResourceBundle.Control DEFAULT_CONTROL = ResourceBundle.Control.getControl(ResourceBundle.Control.FORMAT_DEFAULT);
+    private static final ResourceBundle.Control STRICT_CONTROL = ResourceBundle.Control.getNoFallbackControl(ResourceBundle.Control.FORMAT_PROPERTIES);
+
+    private static final ConcurrentMap<String, ResourceBundle> BUNDLES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, MessageFormat> TEMPLATES = new ConcurrentHashMap<>();
+
     private Localization() {
     }
 
     public static String getLocalized(String s){
-        ResourceBundle messages = ResourceBundle.getBundle(MESSAGES);
-        return messages.getString(s);
+        return getBundle(MESSAGES, Locale.getDefault(), DEFAULT_CONTROL).getString(s);
     }
 
     public static String getLocalized(String s, Object... params){
@@ -21,7 +34,29 @@ public final class Localization {
     }
 
     public static String getLocalized(String s, Locale l){
-        ResourceBundle messages = ResourceBundle.getBundle(MESSAGES, l);
-        return messages.getString(s);
+        return getBundle(MESSAGES, l, DEFAULT_CONTROL).getString(s);
+    }
+
+    /**
+     * Returns the string of the key in exactly the locale, without falling back to the default locale of the JVM,
+     * e.g. so an English review is not rendered in Chinese on a controller running in a Chinese locale.
+     */
+    public static String getString(String baseName, Locale locale, String key) {
+        return getBundle(baseName, locale, STRICT_CONTROL).getString(key);
+    }
+
+    /**
+     * Returns the message template of the key in exactly the locale. The pattern is parsed once; as a
+     * {@link MessageFormat} is not thread safe, every caller gets its own copy, to be reused for all its messages.
+     */
+    public static MessageFormat getTemplate(String baseName, Locale locale, String key) {
+        MessageFormat template = TEMPLATES.computeIfAbsent(baseName + '\n' + locale + '\n' + key,
+                cacheKey -> new MessageFormat(getString(baseName, locale, key), locale));
+        return (MessageFormat) template.clone();
+    }
+
+    private static ResourceBundle getBundle(String baseName, Locale locale, ResourceBundle.Control control) {
+        String cacheKey = baseName + '\n' + locale + '\n' + (control == STRICT_CONTROL ? "strict" : "default");
+        return BUNDLES.computeIfAbsent(cacheKey, key -> ResourceBundle.getBundle(baseName, locale, Localization.class.getClassLoader(), control));
     }
 }
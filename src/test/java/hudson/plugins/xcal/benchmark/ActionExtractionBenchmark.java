@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.benchmark;
+
+import hudson.plugins.xcal.action.XcalscanAnalysisAction;
+import hudson.plugins.xcal.util.CommonUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracts the Xcalscan action of a build. When the action was recorded by the Xcalscan plugin, its class comes from
+ * another class loader and the publisher converts it into its own copy, issues included.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ActionExtractionBenchmark {
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int issues;
+
+    private XcalscanAnalysisAction action;
+
+    @Setup
+    public void setUp() {
+        action = SyntheticScan.action(issues, true);
+    }
+
+    @Benchmark
+    public XcalscanAnalysisAction convert() throws IOException {
+        return CommonUtil.convertObject(action, XcalscanAnalysisAction.class);
+    }
+
+    @Benchmark
+    public XcalscanAnalysisAction detach() {
+        return action.detach(true);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.benchmark;
+
+import hudson.plugins.xcal.action.XcalscanAnalysisAction;
+import hudson.plugins.xcal.service.RenderedReview;
+import hudson.plugins.xcal.service.ReviewRenderOptions;
+import org.apache.commons.lang3.LocaleUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders the review messages of a scan, per locale and for both locales combined, with the default budget of the
+ * publisher and without any budget.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ReviewRenderBenchmark {
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int issues;
+
+    @Param({"en", "zh_CN", "en,zh_CN"})
+    public String locales;
+
+    @Param({"500", "0"})
+    public int maxIssues;
+
+    private XcalscanAnalysisAction action;
+    private ReviewRenderOptions options;
+    private Set<String> patchSetFiles;
+
+    @Setup
+    public void setUp() {
+        action = SyntheticScan.action(issues, true);
+        List<Locale> localeList = new ArrayList<>();
+        for (String locale : locales.split(",")) {
+            localeList.add(LocaleUtils.toLocale(locale));
+        }
+        options = ReviewRenderOptions.builder()
+                .locales(localeList)
+                .maxIssues(maxIssues)
+                .maxMessageBytes(maxIssues > 0 ? 64 * 1024 : 0)
+                .maxInlineComments(50)
+                .build();
+        patchSetFiles = SyntheticScan.patchSetFiles(100);
+    }
+
+    @Benchmark
+    public RenderedReview renderMessages() {
+        return options.render(action, null, null);
+    }
+
+    @Benchmark
+    public RenderedReview renderMessagesAndComments() {
+        return options.render(action, null, patchSetFiles);
+    }
+}
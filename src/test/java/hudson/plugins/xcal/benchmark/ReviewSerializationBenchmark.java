@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import hudson.plugins.xcal.action.XcalscanAnalysisAction;
+import hudson.plugins.xcal.service.ReviewDigestCache;
+import hudson.plugins.xcal.service.ReviewMessageRenderer;
+import hudson.plugins.xcal.service.ReviewRenderOptions;
+import hudson.plugins.xcal.util.CommonUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes rendered reviews to JSON, as done to queue them in the outbox and to return them from the agent, and
+ * digests what they report.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ReviewSerializationBenchmark {
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int issues;
+
+    private List<ReviewInput> reviewInputs;
+    private List<Object> digestParts;
+
+    @Setup
+    public void setUp() {
+        ReviewRenderOptions options = ReviewRenderOptions.builder()
+                .locales(Arrays.asList(Locale.ENGLISH, Locale.SIMPLIFIED_CHINESE))
+                .maxIssues(500)
+                .maxMessageBytes(64 * 1024)
+                .shardMessages(true)
+                .maxInlineComments(50)
+                .build();
+        XcalscanAnalysisAction action = SyntheticScan.action(issues, true);
+        reviewInputs = options.render(action, null, SyntheticScan.patchSetFiles(100)).getReviewInputs();
+        ReviewMessageRenderer renderer = new ReviewMessageRenderer(options.getLocales());
+        renderer.setBudget(options.getIssueLimit(), options.getMaxMessageBytes());
+        renderer.setSharding(true);
+        digestParts = new ArrayList<>();
+        renderer.addDigestParts(action, digestParts);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws JsonProcessingException {
+        return CommonUtil.objectMapper.writeValueAsBytes(reviewInputs);
+    }
+
+    @Benchmark
+    public String digest() {
+        return ReviewDigestCache.digest(digestParts);
+    }
+}
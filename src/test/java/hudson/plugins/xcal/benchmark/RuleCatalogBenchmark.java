@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.benchmark;
+
+import hudson.plugins.xcal.action.XcalscanAnalysisAction;
+import hudson.plugins.xcal.payload.IssueDiff;
+import hudson.plugins.xcal.service.RuleCatalog;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the rule catalog of a scan and looks up the rule of every issue. With versioned issues the catalog compiled
+ * by the first invocation is shared, without versions every invocation compiles it from the rule info. Without complete
+ * rule info, the shared catalog is first compiled from another scan hitting other rules, so the rules of this scan
+ * have to be merged into it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RuleCatalogBenchmark {
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int issues;
+
+    @Param({"true", "false"})
+    public boolean versioned;
+
+    @Param({"true", "false"})
+    public boolean completeRuleInfo;
+
+    private XcalscanAnalysisAction action;
+    private List<IssueDiff> issueDiffs;
+    private RuleCatalog catalog;
+
+    @Setup
+    public void setUp() {
+        if (!completeRuleInfo) {
+            XcalscanAnalysisAction other = SyntheticScan.action(issues / 2 + 1, versioned, false);
+            RuleCatalog.of(other, other.getIssueDiffs());
+        }
+        action = SyntheticScan.action(issues, versioned, completeRuleInfo);
+        issueDiffs = action.getIssueDiffs();
+        catalog = RuleCatalog.of(action, issueDiffs);
+        for (IssueDiff issueDiff : issueDiffs) {
+            if (catalog.getRule(issueDiff.getIssueCode()) == null) {
+                throw new IllegalStateException("No rule " + issueDiff.getIssueCode() + " in the catalog");
+            }
+        }
+    }
+
+    @Benchmark
+    public RuleCatalog resolveCatalog() {
+        return RuleCatalog.of(action, issueDiffs);
+    }
+
+    @Benchmark
+    public void lookupRules(Blackhole blackhole) {
+        for (IssueDiff issueDiff : issueDiffs) {
+            RuleCatalog.Rule rule = catalog.getRule(issueDiff.getIssueCode());
+            blackhole.consume(rule != null ? rule.getName(false) : null);
+            blackhole.consume(catalog.getRuleSetDisplayName(issueDiff));
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.benchmark;
+
+import hudson.plugins.xcal.action.XcalscanAnalysisAction;
+import hudson.plugins.xcal.payload.IssueDiff;
+import hudson.plugins.xcal.payload.IssueDto;
+import hudson.plugins.xcal.util.VariableUtil;
+import net.sf.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * Generates scan results shaped like those of a real Xcalscan server: a few rule sets, a few hundred rules, issues
+ * spread over a source tree with multi-step traces and the usual attributes. The generator is seeded, so every fork
+ * of a benchmark renders the same scan.
+ */
+public final class SyntheticScan {
+
+    public static final int RULES = 400;
+    public static final int FILES = 2000;
+
+    private static final String[] RULE_SETS = {"BUILTIN", "CERT", "MISRA"};
+    private static final String[] SEVERITIES = {"HIGH", "MEDIUM", "LOW"};
+    private static final String[] CERTAINTIES = {"D", "M"};
+    private static final String[] LIKELIHOODS = {"LIKELY", "PROBABLE", "UNLIKELY"};
+    private static final String[] TYPES = {"NEW", "NEW", "NEW", "FIXED"};
+
+    private SyntheticScan() {
+    }
+
+    /**
+     * Returns an action holding the issues inline, as the Xcalscan plugin records it before it is attached to a build.
+     *
+     * @param versioned whether the issues tell their rule set version, which lets rule catalogs be shared
+     */
+    public static XcalscanAnalysisAction action(int issues, boolean versioned) {
+        return action(issues, versioned, true);
+    }
+
+    /**
+     * @param completeRuleInfo whether the rule info describes every rule, or only the rules the issues hit
+     */
+    public static XcalscanAnalysisAction action(int issues, boolean versioned, boolean completeRuleInfo) {
+        List<IssueDiff> issueDiffs = issueDiffs(issues, versioned);
+        long fixed = issueDiffs.stream().filter(issueDiff -> "FIXED".equals(issueDiff.getType())).count();
+        return XcalscanAnalysisAction.builder()
+                .url("https://xcalscan.example.com/project/benchmark")
+                .serverUrl("https://xcalscan.example.com")
+                .projectUUID(new UUID(0, 1))
+                .projectId("benchmark")
+                .projectName("benchmark")
+                .scanTaskId(new UUID(0, 2))
+                .status("COMPLETED")
+                .risk("HIGH")
+                .issuesCount(String.valueOf(issues))
+                .fileCount(String.valueOf(FILES))
+                .lineCount("1500000")
+                .newIssueCount(String.valueOf(issues - fixed))
+                .fixedIssueCount(String.valueOf(fixed))
+                .commitId("3f1c2a9d5e7b8c4f6a0d1e2b3c4d5e6f7a8b9c0d")
+                .baselineCommitId("9c0d3f1c2a9d5e7b8c4f6a0d1e2b3c4d5e6f7a8b")
+                .dsrUrl("https://xcalscan.example.com/project/benchmark/dsr")
+                .scanTime(new Date(0))
+                .highPriorityCount(String.valueOf(issues / 3))
+                .mediumPriorityCount(String.valueOf(issues / 3))
+                .lowPriorityCount(String.valueOf(issues - 2 * (issues / 3)))
+                .definiteCount(String.valueOf(issues / 2))
+                .issueDiffs(issueDiffs)
+                .ruleInfo(completeRuleInfo ? ruleInfo() : ruleInfo(issueDiffs))
+                .build();
+    }
+
+    public static List<IssueDiff> issueDiffs(int issues, boolean versioned) {
+        Random random = new Random(issues);
+        List<IssueDiff> issueDiffs = new ArrayList<>(issues);
+        for (int i = 0; i < issues; i++) {
+            issueDiffs.add(issueDiff(random, i, versioned));
+        }
+        return issueDiffs;
+    }
+
+    /**
+     * Rule info keyed by rule code, as returned by the Xcalscan server.
+     */
+    public static JSONObject ruleInfo() {
+        JSONObject ruleInfo = new JSONObject();
+        for (int rule = 0; rule < RULES; rule++) {
+            JSONObject names = new JSONObject();
+            names.put("rule_name_eng", "Rule " + rule + " of the " + ruleSet(rule) + " rule set");
+            names.put("rule_name_chi", ruleSet(rule) + " 规则 " + rule);
+            ruleInfo.put(ruleCode(rule), names);
+        }
+        return ruleInfo;
+    }
+
+    /**
+     * Rule info describing only the rules the issues hit.
+     */
+    public static JSONObject ruleInfo(Collection<IssueDiff> issueDiffs) {
+        JSONObject allRules = ruleInfo();
+        JSONObject ruleInfo = new JSONObject();
+        for (IssueDiff issueDiff : issueDiffs) {
+            ruleInfo.put(issueDiff.getIssueCode(), allRules.get(issueDiff.getIssueCode()));
+        }
+        return ruleInfo;
+    }
+
+    /**
+     * Files touched by a patchset, as listed by Gerrit.
+     */
+    public static Set<String> patchSetFiles(int files) {
+        Set<String> patchSetFiles = new TreeSet<>();
+        for (int file = 0; file < files; file++) {
+            patchSetFiles.add(filePath(file * (FILES / Math.max(files, 1))));
+        }
+        return patchSetFiles;
+    }
+
+    public static String ruleCode(int rule) {
+        return ruleSet(rule).charAt(0) + "-" + rule;
+    }
+
+    private static String ruleSet(int rule) {
+        return RULE_SETS[rule % RULE_SETS.length];
+    }
+
+    private static String filePath(int file) {
+        return "src/module" + (file % 20) + "/component" + (file % 7) + "/file" + file + ".c";
+    }
+
+    private static IssueDiff issueDiff(Random random, int index, boolean versioned) {
+        int rule = random.nextInt(RULES);
+        int file = random.nextInt(FILES);
+        int line = 1 + random.nextInt(3000);
+        String severity = SEVERITIES[random.nextInt(SEVERITIES.length)];
+        String certainty = CERTAINTIES[random.nextInt(CERTAINTIES.length)];
+        String likelihood = LIKELIHOODS[random.nextInt(LIKELIHOODS.length)];
+        int traces = 1 + random.nextInt(8);
+
+        List<IssueDto.IssueTrace> issueTraces = new ArrayList<>(traces);
+        for (int trace = 0; trace < traces; trace++) {
+            issueTraces.add(IssueDto.IssueTrace.builder()
+                    .id(new UUID(index, trace))
+                    .seq(trace + 1)
+                    .relativePath(filePath((file + trace) % FILES))
+                    .lineNo(Math.max(1, line - traces + trace))
+                    .columnNo(1 + random.nextInt(80))
+                    .functionName("function" + (index % 500))
+                    .variableName("variable" + trace)
+                    .message("step " + (trace + 1) + " of the path to the issue")
+                    .scanFileSize(40_000L)
+                    .scanFileNoOfLines(3000)
+                    .build());
+        }
+        List<IssueDto.IssueAttribute> issueAttributes = Arrays.asList(
+                new IssueDto.IssueAttribute(VariableUtil.IssueAttributeName.RULE_CODE, ruleCode(rule)),
+                new IssueDto.IssueAttribute(VariableUtil.IssueAttributeName.SEVERITY, severity),
+                new IssueDto.IssueAttribute(VariableUtil.IssueAttributeName.CERTAINTY, certainty),
+                new IssueDto.IssueAttribute(VariableUtil.IssueAttributeName.LIKELIHOOD, likelihood),
+                new IssueDto.IssueAttribute(VariableUtil.IssueAttributeName.PRIORITY, severity),
+                new IssueDto.IssueAttribute(VariableUtil.IssueAttributeName.COMPLEXITY, String.valueOf(random.nextInt(50))),
+                new IssueDto.IssueAttribute(VariableUtil.IssueAttributeName.NO_OF_TRACE_SET, String.valueOf(1 + random.nextInt(3))));
+        IssueDto.RuleInformation ruleInformation = IssueDto.RuleInformation.builder()
+                .ruleSet(ruleSet(rule))
+                .ruleSetDisplayName(ruleSet(rule).toLowerCase())
+                .ruleSetVersion(versioned ? "1." + (rule % RULE_SETS.length) : null)
+                .ruleCode(ruleCode(rule))
+                .name("Rule " + rule)
+                .severity(severity)
+                .build();
+        IssueDto issue = IssueDto.builder()
+                .id(new UUID(index, 0))
+                .issueKey("key-" + index)
+                .seq(String.valueOf(index + 1))
+                .ruleInformation(ruleInformation)
+                .ruleSet(ruleSet(rule))
+                .issueCode(ruleCode(rule))
+                .issueName("Rule " + rule)
+                .severity(severity)
+                .certainty(certainty)
+                .likelihood(likelihood)
+                .relativePath(filePath(file))
+                .lineNo(line)
+                .functionName("function" + (index % 500))
+                .variableName("variable" + (index % 40))
+                .message("issue " + index + " reported by rule " + ruleCode(rule))
+                .issueTraces(issueTraces)
+                .issueAttributes(issueAttributes)
+                .build();
+        return IssueDiff.builder()
+                .id(new UUID(index, 1))
+                .issueId(issue.getId())
+                .issueKey(issue.getIssueKey())
+                .type(TYPES[index % TYPES.length])
+                .ruleSet(ruleSet(rule))
+                .issueCode(ruleCode(rule))
+                .issueName("Rule " + rule)
+                .severity(severity)
+                .certainty(certainty)
+                .likelihood(likelihood)
+                .relativePath(filePath(file))
+                .lineNo(line)
+                .functionName(issue.getFunctionName())
+                .variableName(issue.getVariableName())
+                .issue(issue)
+                .build();
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.loadtest;
+
+import com.sonyericsson.hudson.plugins.gerrit.trigger.GerritServer;
+import com.sonyericsson.hudson.plugins.gerrit.trigger.PluginImpl;
+import com.sonyericsson.hudson.plugins.gerrit.trigger.config.Config;
+import com.sonyericsson.hudson.plugins.gerrit.trigger.hudsontrigger.GerritTrigger;
+import hudson.Launcher;
+import hudson.model.*;
+import hudson.model.queue.QueueTaskFuture;
+import hudson.plugins.xcal.XcalscanGerritPublisher;
+import hudson.plugins.xcal.benchmark.SyntheticScan;
+import hudson.plugins.xcal.service.ChangeCoalescer;
+import hudson.plugins.xcal.service.GerritClientRegistry;
+import hudson.plugins.xcal.service.GerritReviewOutbox;
+import hudson.plugins.xcal.service.GerritServerGuard;
+import hudson.plugins.xcal.service.GerritServerProbe;
+import hudson.plugins.xcal.service.ReviewDigestCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+import java.io.PrintStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs concurrent builds publishing to {@link GerritStandIn} and reports the latency of the posted reviews and how
+ * long the builds held their executors.
+ * <p>
+ * The defaults keep the run short enough for every build. Larger runs are configured with system properties, e.g.
+ * {@code mvn test -Dtest=GerritPublisherLoadTest -Dhudson.plugins.xcal.loadtest.builds=64
+ * -Dhudson.plugins.xcal.loadtest.issues=10000 -Dhudson.plugins.xcal.loadtest.latencyMillis=200}.
+ */
+public class GerritPublisherLoadTest {
+
+    private static final String PREFIX = GerritPublisherLoadTest.class.getPackage().getName() + '.';
+    private static final int BUILDS = Integer.getInteger(PREFIX + "builds", 8);
+    private static final int ISSUES = Integer.getInteger(PREFIX + "issues", 1000);
+    private static final long LATENCY_MILLIS = Long.getLong(PREFIX + "latencyMillis", 50);
+    private static final long JITTER_MILLIS = Long.getLong(PREFIX + "jitterMillis", 50);
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty(PREFIX + "errorRate", "0"));
+    private static final double THROTTLE_RATE = Double.parseDouble(System.getProperty(PREFIX + "throttleRate", "0"));
+
+    private static final String SERVER_NAME = "stand-in";
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private GerritStandIn gerrit;
+
+    @Before
+    public void setUp() throws Exception {
+        gerrit = new GerritStandIn();
+        gerrit.setLatency(LATENCY_MILLIS, JITTER_MILLIS);
+        gerrit.setPatchSetFiles(SyntheticScan.patchSetFiles(100));
+
+        GerritServer server = new GerritServer(SERVER_NAME);
+        Config config = (Config) server.getConfig();
+        config.setGerritFrontEndURL(gerrit.getUrl());
+        config.setUseRestApi(true);
+        config.setGerritHttpUserName("jenkins");
+        config.setGerritHttpPassword("secret");
+        PluginImpl.getInstance().addServer(server);
+
+        // state kept by the plugin for the whole JVM, left over by the previous test
+        GerritClientRegistry.get().invalidateAll();
+        GerritServerProbe.invalidateAll();
+        GerritServerGuard.invalidateAll();
+        // failed posts stay queued, so that the reviews posted and those pending add up to the builds
+        GerritReviewOutbox.get().setPaused(true);
+        GerritReviewOutbox.get().clear();
+        ChangeCoalescer.get().invalidateAll();
+        ReviewDigestCache.get().clear();
+
+        j.jenkins.setNumExecutors(BUILDS);
+    }
+
+    @After
+    public void tearDown() {
+        GerritReviewOutbox.get().setPaused(false);
+        gerrit.close();
+    }
+
+    @Test
+    public void synchronousPublishing() throws Exception {
+        XcalscanGerritPublisher publisher = newPublisher();
+        Report report = run(publisher);
+        report.print(System.out, "synchronous");
+        assertAllPosted(report);
+    }
+
+    @Test
+    public void asynchronousPublishing() throws Exception {
+        XcalscanGerritPublisher publisher = newPublisher();
+        publisher.setAsynchronous(true);
+        Report report = run(publisher);
+        report.print(System.out, "asynchronous");
+        assertAllPosted(report);
+    }
+
+    /**
+     * Failed posts are queued in the outbox for a retry, so every build succeeds however often the server fails, and
+     * every review is either posted or pending. Retries are paused, so both counts are taken while neither changes.
+     */
+    @Test
+    public void failingServer() throws Exception {
+        XcalscanGerritPublisher publisher = newPublisher();
+        gerrit.setErrorRate(Math.max(ERROR_RATE, 0.2));
+        gerrit.setThrottleRate(Math.max(THROTTLE_RATE, 0.2));
+        Report report = run(publisher);
+        report.print(System.out, "failing server");
+        assertEquals(BUILDS, report.reviews.size() + GerritReviewOutbox.get().getQueueDepth());
+    }
+
+    /**
+     * Without injected failures every build posts its review right away.
+     */
+    private static void assertAllPosted(Report report) {
+        if (ERROR_RATE == 0 && THROTTLE_RATE == 0) {
+            assertEquals(BUILDS, report.reviews.size());
+        }
+    }
+
+    private XcalscanGerritPublisher newPublisher() {
+        gerrit.setErrorRate(ERROR_RATE);
+        gerrit.setThrottleRate(THROTTLE_RATE);
+        XcalscanGerritPublisher publisher = new XcalscanGerritPublisher("");
+        // one review per build, whatever the locales
+        publisher.setCombineLocales(true);
+        publisher.setInlineComments(true);
+        publisher.setRetryFailedPosts(true);
+        return publisher;
+    }
+
+    private Report run(XcalscanGerritPublisher publisher) throws Exception {
+        FreeStyleProject project = j.createFreeStyleProject();
+        project.setConcurrentBuild(true);
+        project.addProperty(new ParametersDefinitionProperty(
+                new StringParameterDefinition("GERRIT_NAME", SERVER_NAME),
+                new StringParameterDefinition("GERRIT_CHANGE_NUMBER", "1"),
+                new StringParameterDefinition("GERRIT_PATCHSET_NUMBER", "1")));
+        GerritTrigger trigger = new GerritTrigger(Collections.emptyList());
+        trigger.setServerName(SERVER_NAME);
+        project.addTrigger(trigger);
+        project.getBuildersList().add(new TestBuilder() {
+            @Override
+            public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) {
+                build.addAction(SyntheticScan.action(ISSUES, true));
+                return true;
+            }
+        });
+        project.getPublishersList().add(publisher);
+
+        long start = System.nanoTime();
+        List<QueueTaskFuture<FreeStyleBuild>> futures = new ArrayList<>();
+        for (int build = 0; build < BUILDS; build++) {
+            futures.add(project.scheduleBuild2(0, new Cause.UserIdCause(), new ParametersAction(
+                    new StringParameterValue("GERRIT_NAME", SERVER_NAME),
+                    new StringParameterValue("GERRIT_CHANGE_NUMBER", String.valueOf(1000 + build)),
+                    new StringParameterValue("GERRIT_PATCHSET_NUMBER", "1"))));
+        }
+        List<Long> holdMillis = new ArrayList<>();
+        for (QueueTaskFuture<FreeStyleBuild> future : futures) {
+            FreeStyleBuild build = j.assertBuildStatusSuccess(future);
+            holdMillis.add(build.getDuration());
+        }
+        long buildsMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // queued reviews are posted by the dispatcher after the builds completed
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60);
+        while (publisher.isAsynchronous() && gerrit.getReviews().size() < BUILDS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        return new Report(gerrit, holdMillis, buildsMillis, totalMillis);
+    }
+
+    private static final class Report {
+        private final List<GerritStandIn.Review> reviews;
+        private final List<Long> reviewMillis = new ArrayList<>();
+        private final List<Long> holdMillis;
+        private final Map<String, Long> requests;
+        private final long buildsMillis;
+        private final long totalMillis;
+
+        private Report(GerritStandIn gerrit, List<Long> holdMillis, long buildsMillis, long totalMillis) {
+            this.reviews = gerrit.getReviews();
+            for (long nanos : gerrit.getReviewNanos()) {
+                reviewMillis.add(TimeUnit.NANOSECONDS.toMillis(nanos));
+            }
+            this.holdMillis = holdMillis;
+            this.requests = gerrit.getRequests();
+            this.buildsMillis = buildsMillis;
+            this.totalMillis = totalMillis;
+        }
+
+        private void print(PrintStream out, String scenario) {
+            out.printf("[%s] %d builds of %d issues, latency %d+%d ms%n", scenario, BUILDS, ISSUES, LATENCY_MILLIS, JITTER_MILLIS);
+            out.printf("  builds completed in %d ms, reviews posted in %d ms, %d review(s)%n", buildsMillis, totalMillis, reviews.size());
+            out.println("  executor hold ms " + percentiles(holdMillis));
+            out.println("  review latency ms " + percentiles(reviewMillis));
+            requests.forEach((request, count) -> out.printf("  %s: %d%n", request, count));
+        }
+
+        private static String percentiles(List<Long> values) {
+            if (values.isEmpty()) {
+                return "n/a";
+            }
+            List<Long> sorted = new ArrayList<>(values);
+            Collections.sort(sorted);
+            return String.format("p50 %d, p90 %d, p99 %d, max %d",
+                    percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted.get(sorted.size() - 1));
+        }
+
+        private static long percentile(List<Long> sorted, int percentile) {
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+        }
+    }
+}
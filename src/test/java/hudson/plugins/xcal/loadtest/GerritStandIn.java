@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-process HTTP server answering the Gerrit REST endpoints {@link hudson.plugins.xcal.service.GerritService}
+ * calls, so the publisher can be exercised without a Gerrit server or network access.
+ * <p>
+ * Every request waits for the configured latency, then fails with 429 or 500 at the configured rates before it is
+ * answered. Posted reviews are recorded with the time the server spent on them.
+ */
+public final class GerritStandIn implements AutoCloseable {
+
+    public static final String VERSION = "2.16.7";
+
+    private static final String MAGIC_PREFIX = ")]}'\n";
+    private static final Pattern REVISION = Pattern.compile("^/changes/([^/]+)/revisions/([^/]+)/(review|files)/?$");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Random random = new Random();
+    private final Map<String, LongAdder> requests = new ConcurrentHashMap<>();
+    private final Queue<Review> reviews = new ConcurrentLinkedQueue<>();
+    private final Queue<Long> reviewNanos = new ConcurrentLinkedQueue<>();
+
+    private volatile long latencyMillis;
+    private volatile long jitterMillis;
+    private volatile double errorRate;
+    private volatile double throttleRate;
+    private volatile Set<String> patchSetFiles = Collections.emptySet();
+
+    public GerritStandIn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Front end URL to configure in the Gerrit Trigger server.
+     */
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ':' + server.getAddress().getPort() + '/';
+    }
+
+    /**
+     * @param latencyMillis fixed delay of every request
+     * @param jitterMillis  maximum random delay added to the fixed one
+     */
+    public void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /**
+     * Share of requests answered with 500.
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Share of requests answered with 429 and a {@code Retry-After} header.
+     */
+    public void setThrottleRate(double throttleRate) {
+        this.throttleRate = throttleRate;
+    }
+
+    /**
+     * Files listed for every patchset.
+     */
+    public void setPatchSetFiles(Set<String> patchSetFiles) {
+        this.patchSetFiles = new TreeSet<>(patchSetFiles);
+    }
+
+    /**
+     * Number of requests per endpoint and status, e.g. {@code POST review 200}.
+     */
+    public Map<String, Long> getRequests() {
+        Map<String, Long> counts = new TreeMap<>();
+        requests.forEach((key, count) -> counts.put(key, count.sum()));
+        return counts;
+    }
+
+    public List<Review> getReviews() {
+        return new ArrayList<>(reviews);
+    }
+
+    /**
+     * Time spent by the server on each accepted review, injected latency included.
+     */
+    public List<Long> getReviewNanos() {
+        return new ArrayList<>(reviewNanos);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String method = exchange.getRequestMethod();
+            // authenticated requests are prefixed with /a
+            String path = exchange.getRequestURI().getPath().replaceFirst("^/a/", "/");
+            String endpoint = endpoint(path);
+            byte[] body = IOUtils.toByteArray(exchange.getRequestBody());
+
+            int status = fault();
+            if (status == 0) {
+                status = answer(exchange, method, path, endpoint, body, start);
+            } else {
+                if (status == 429) {
+                    exchange.getResponseHeaders().add("Retry-After", "1");
+                }
+                send(exchange, status, null);
+            }
+            requests.computeIfAbsent(method + ' ' + endpoint + ' ' + status, key -> new LongAdder()).increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, null);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private int answer(HttpExchange exchange, String method, String path, String endpoint, byte[] body, long start) throws IOException {
+        switch (method + ' ' + endpoint) {
+            case "GET version":
+                return send(exchange, 200, '"' + VERSION + '"');
+            case "GET changes":
+                return send(exchange, 200, "[]");
+            case "GET files":
+                StringBuilder files = new StringBuilder("{\"/COMMIT_MSG\":{}");
+                for (String file : patchSetFiles) {
+                    files.append(",\"").append(file).append("\":{}");
+                }
+                return send(exchange, 200, files.append('}').toString());
+            case "POST review":
+                Matcher matcher = REVISION.matcher(path);
+                matcher.matches();
+                reviews.add(new Review(matcher.group(1), matcher.group(2), body.length));
+                reviewNanos.add(System.nanoTime() - start);
+                return send(exchange, 200, "{\"labels\":{}}");
+            default:
+                return send(exchange, 404, null);
+        }
+    }
+
+    private static String endpoint(String path) {
+        if (path.startsWith("/config/server/version")) {
+            return "version";
+        }
+        Matcher matcher = REVISION.matcher(path);
+        if (matcher.matches()) {
+            return matcher.group(3);
+        }
+        if (path.startsWith("/changes")) {
+            return "changes";
+        }
+        return path;
+    }
+
+    /**
+     * Waits for the latency, then returns the status of an injected failure or zero.
+     */
+    private int fault() throws InterruptedException {
+        long jitter = jitterMillis;
+        double dice;
+        synchronized (random) {
+            jitter = jitter > 0 ? (long) (random.nextDouble() * jitter) : 0;
+            dice = random.nextDouble();
+        }
+        if (latencyMillis + jitter > 0) {
+            Thread.sleep(latencyMillis + jitter);
+        }
+        if (dice < throttleRate) {
+            return 429;
+        }
+        if (dice < throttleRate + errorRate) {
+            return 500;
+        }
+        return 0;
+    }
+
+    private static int send(HttpExchange exchange, int status, String json) throws IOException {
+        if (json == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return status;
+        }
+        byte[] bytes = (MAGIC_PREFIX + json).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+        return status;
+    }
+
+    /**
+     * A review received by the server.
+     */
+    public static final class Review {
+        private final String change;
+        private final String patchSet;
+        private final int bytes;
+
+        Review(String change, String patchSet, int bytes) {
+            this.change = change;
+            this.patchSet = patchSet;
+            this.bytes = bytes;
+        }
+
+        public String getChange() {
+            return change;
+        }
+
+        public String getPatchSet() {
+            return patchSet;
+        }
+
+        public int getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.urswolfer.gerrit.client.rest.http.HttpStatusException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Drives the circuit breaker and adaptive rate of {@link GerritServerGuard} with short limits: 2 failures open the
+ * circuit for 1 second, and calls slower than 1 second count as overload.
+ */
+public class GerritServerGuardTest {
+
+    private static final GerritServerGuard.Limits LIMITS = new GerritServerGuard.Limits(100, 100, 2, 1, 1000, 1);
+
+    private GerritServerGuard guard;
+
+    @Before
+    public void setUp() {
+        GerritServerGuard.setLimits(LIMITS);
+        GerritServerGuard.invalidateAll();
+        guard = GerritServerGuard.of("test");
+    }
+
+    @After
+    public void tearDown() {
+        GerritServerGuard.setLimits(GerritServerGuard.Limits.DEFAULT);
+        GerritServerGuard.invalidateAll();
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() throws Exception {
+        guard.acquire();
+        guard.onFailure(serverError(500));
+        assertEquals(GerritServerGuard.State.CLOSED, guard.getState());
+        guard.acquire();
+        guard.onFailure(serverError(502));
+        assertEquals(GerritServerGuard.State.OPEN, guard.getState());
+        assertUnavailable();
+    }
+
+    @Test
+    public void successResetsFailureCount() throws Exception {
+        guard.acquire();
+        guard.onFailure(new RestApiException("connection reset", new IOException("connection reset")));
+        guard.acquire();
+        guard.onSuccess(10);
+        guard.acquire();
+        guard.onFailure(serverError(500));
+        assertEquals(GerritServerGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    public void rejectedRequestsDoNotOpen() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            guard.acquire();
+            guard.onFailure(serverError(400));
+        }
+        assertEquals(GerritServerGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    public void halfOpenTrialClosesOnSuccess() throws Exception {
+        open();
+        waitForOpenPeriod();
+        guard.acquire();
+        assertEquals(GerritServerGuard.State.HALF_OPEN, guard.getState());
+        // only one trial call at a time
+        assertUnavailable();
+        guard.onSuccess(10);
+        assertEquals(GerritServerGuard.State.CLOSED, guard.getState());
+        guard.acquire();
+    }
+
+    @Test
+    public void halfOpenTrialReopensOnFailure() throws Exception {
+        open();
+        waitForOpenPeriod();
+        guard.acquire();
+        guard.onFailure(serverError(500));
+        assertEquals(GerritServerGuard.State.OPEN, guard.getState());
+        assertUnavailable();
+    }
+
+    @Test
+    public void halfOpenTrialEndsOnUncheckedFailure() throws Exception {
+        open();
+        waitForOpenPeriod();
+        guard.acquire();
+        guard.onFailure(new IllegalStateException("unreadable response"));
+        assertEquals(GerritServerGuard.State.OPEN, guard.getState());
+        // the failed trial must not block the next one
+        waitForOpenPeriod();
+        guard.acquire();
+        guard.onSuccess(10);
+        assertEquals(GerritServerGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    public void overloadHalvesRateAndSuccessRecoversIt() throws Exception {
+        assertEquals(100, guard.getRate(), 0.001);
+        guard.acquire();
+        guard.onFailure(serverError(429));
+        assertEquals(50, guard.getRate(), 0.001);
+        // a slow call counts as overload too
+        guard.onSuccess(1500);
+        assertEquals(25, guard.getRate(), 0.001);
+        guard.onSuccess(10);
+        assertEquals(27.5, guard.getRate(), 0.001);
+        for (int i = 0; i < 20; i++) {
+            guard.onSuccess(10);
+        }
+        assertEquals(100, guard.getRate(), 0.001);
+    }
+
+    @Test
+    public void slowSuccessesOnlyLowerRate() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            guard.acquire();
+            guard.onSuccess(1500);
+        }
+        assertEquals(GerritServerGuard.State.CLOSED, guard.getState());
+        assertEquals(100 / 16.0, guard.getRate(), 0.001);
+        // a slow call does not break a run of failures either
+        guard.acquire();
+        guard.onFailure(serverError(500));
+        guard.acquire();
+        guard.onSuccess(1500);
+        guard.acquire();
+        guard.onFailure(serverError(500));
+        assertEquals(GerritServerGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    public void slowHalfOpenTrialCloses() throws Exception {
+        open();
+        waitForOpenPeriod();
+        guard.acquire();
+        guard.onSuccess(1500);
+        assertEquals(GerritServerGuard.State.CLOSED, guard.getState());
+    }
+
+    @Test
+    public void newLimitsKeepCircuitAndLowerRate() throws Exception {
+        guard.acquire();
+        guard.onFailure(serverError(429));
+        assertEquals(50, guard.getRate(), 0.001);
+        GerritServerGuard.setLimits(new GerritServerGuard.Limits(100, 100, 2, 1, 1000, 1));
+        assertEquals(50, guard.getRate(), 0.001);
+        GerritServerGuard.setLimits(new GerritServerGuard.Limits(20, 100, 2, 1, 1000, 1));
+        assertEquals(20, guard.getRate(), 0.001);
+        guard.acquire();
+        guard.onSuccess(10);
+        open();
+        GerritServerGuard.setLimits(LIMITS);
+        assertEquals(guard, GerritServerGuard.of("test"));
+        assertEquals(GerritServerGuard.State.OPEN, guard.getState());
+    }
+
+    @Test
+    public void rateDoesNotDropBelowFloor() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            guard.onFailure(serverError(503));
+        }
+        assertEquals(100 / 16.0, guard.getRate(), 0.001);
+    }
+
+    private void open() throws Exception {
+        for (int i = 0; i < LIMITS.getFailureThreshold(); i++) {
+            guard.acquire();
+            guard.onFailure(serverError(500));
+        }
+        assertEquals(GerritServerGuard.State.OPEN, guard.getState());
+    }
+
+    private void assertUnavailable() {
+        try {
+            guard.acquire();
+            fail("acquired a permit while the circuit is open");
+        } catch (GerritServerGuard.GerritUnavailableException expected) {
+            // fails fast
+        }
+    }
+
+    private static void waitForOpenPeriod() throws InterruptedException {
+        TimeUnit.MILLISECONDS.sleep(TimeUnit.SECONDS.toMillis(LIMITS.getOpenSeconds()) + 100);
+    }
+
+    private static HttpStatusException serverError(int statusCode) {
+        return new HttpStatusException(statusCode, "HTTP " + statusCode, "Request failed with HTTP " + statusCode);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2019-2020  XC Software (Shenzhen) Ltd.
+ *
+ */
+
+package hudson.plugins.xcal.service;
+
+import com.google.gerrit.extensions.api.changes.ReviewInput;
+import hudson.plugins.xcal.action.XcalscanAnalysisAction;
+import hudson.plugins.xcal.benchmark.SyntheticScan;
+import hudson.plugins.xcal.payload.IssueDiff;
+import hudson.plugins.xcal.util.CommonUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Splits the review of synthetic scans into messages of a few kilobytes, and checks that every issue is listed once
+ * in every locale, whatever the message a row falls into.
+ */
+public class ReviewMessageRendererTest {
+
+    @Rule
+    public TemporaryFolder workspace = new TemporaryFolder();
+
+    private static final Pattern ENGLISH_ROW = Pattern.compile("^Risk: .*, ID: (\\d+), ", Pattern.MULTILINE);
+    private static final Pattern CHINESE_ROW = Pattern.compile("^风险: .*, 编号: (\\d+), ", Pattern.MULTILINE);
+
+    @Test
+    public void shardsListEveryIssueDespiteMaxIssues() {
+        XcalscanAnalysisAction action = SyntheticScan.action(1000, true);
+        List<String> messages = messages(render(action, Collections.singletonList(Locale.ENGLISH), false, 16 * 1024));
+
+        assertTrue("expected several messages, got " + messages.size(), messages.size() > 1);
+        for (int i = 0; i < messages.size(); i++) {
+            assertTrue("message " + (i + 1) + " exceeds the limit", bytes(messages.get(i)) <= 16 * 1024);
+            assertFalse("message " + (i + 1) + " omits issues", messages.get(i).contains("more issue(s) not listed"));
+            if (i > 0) {
+                assertTrue(messages.get(i).startsWith("Xcalscan summary of benchmark with Commit ID " + action.getCommitId() + ", part " + (i + 1) + ":"));
+            }
+        }
+        assertListedOnce(action, messages, ENGLISH_ROW);
+    }
+
+    @Test
+    public void shardEndsAtTheLastRowThatFits() {
+        XcalscanAnalysisAction action = SyntheticScan.action(20, true);
+        String unsharded = messages(render(action, Collections.singletonList(Locale.ENGLISH), false, 0)).get(0);
+        // the message up to the end of the 10th row
+        Matcher row = ENGLISH_ROW.matcher(unsharded);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(row.find());
+        }
+        int tenRows = bytes(unsharded.substring(0, unsharded.indexOf('\n', row.end()) + 1));
+        assertTrue(tenRows + ReviewMessageRenderer.OVERFLOW_RESERVE - 1 > ReviewMessageRenderer.MIN_MESSAGE_BYTES);
+
+        List<String> exact = messages(render(action, Collections.singletonList(Locale.ENGLISH), false, tenRows + ReviewMessageRenderer.OVERFLOW_RESERVE));
+        assertEquals(10, rows(exact.get(0), ENGLISH_ROW).size());
+        assertListedOnce(action, exact, ENGLISH_ROW);
+
+        List<String> oneByteLess = messages(render(action, Collections.singletonList(Locale.ENGLISH), false, tenRows + ReviewMessageRenderer.OVERFLOW_RESERVE - 1));
+        assertEquals(9, rows(oneByteLess.get(0), ENGLISH_ROW).size());
+        assertListedOnce(action, oneByteLess, ENGLISH_ROW);
+    }
+
+    @Test
+    public void rowLargerThanTheLimitGetsItsOwnMessage() {
+        XcalscanAnalysisAction action = SyntheticScan.action(20, true);
+        IssueDiff oversized = action.getIssueDiffs().get(4);
+        oversized.setVariableName(StringUtils.repeat("v", 10000));
+        List<String> messages = messages(render(action, Collections.singletonList(Locale.ENGLISH), false, 4096));
+
+        int oversizedMessages = 0;
+        for (String message : messages) {
+            List<String> seqs = rows(message, ENGLISH_ROW);
+            if (seqs.contains(oversized.getIssue().getSeq())) {
+                oversizedMessages++;
+                assertEquals(Collections.singletonList(oversized.getIssue().getSeq()), seqs);
+            } else {
+                assertTrue(bytes(message) <= 4096);
+            }
+        }
+        assertEquals(1, oversizedMessages);
+        assertListedOnce(action, messages, ENGLISH_ROW);
+    }
+
+    @Test
+    public void limitBelowTheMinimumIsRaised() {
+        XcalscanAnalysisAction action = SyntheticScan.action(20, true);
+        List<String> messages = messages(render(action, Collections.singletonList(Locale.ENGLISH), false, 100));
+
+        assertTrue("expected several rows per message, got " + messages.size() + " messages", messages.size() < 10);
+        for (String message : messages) {
+            assertTrue(bytes(message) <= ReviewMessageRenderer.MIN_MESSAGE_BYTES);
+        }
+        assertListedOnce(action, messages, ENGLISH_ROW);
+        assertEquals(2 * ReviewMessageRenderer.MIN_MESSAGE_BYTES + ReviewRenderOptions.LOCALE_SEPARATOR.length(),
+                ReviewRenderOptions.getMinMessageBytes(2));
+    }
+
+    @Test
+    public void combinedLocalesStayWithinTheLimit() {
+        XcalscanAnalysisAction action = SyntheticScan.action(300, true);
+        List<String> messages = messages(render(action, Arrays.asList(Locale.ENGLISH, Locale.SIMPLIFIED_CHINESE), true, 16 * 1024));
+
+        assertTrue("expected several messages, got " + messages.size(), messages.size() > 1);
+        for (int i = 0; i < messages.size(); i++) {
+            assertTrue("message " + (i + 1) + " exceeds the limit", bytes(messages.get(i)) <= 16 * 1024);
+        }
+        assertListedOnce(action, messages, ENGLISH_ROW);
+        assertListedOnce(action, messages, CHINESE_ROW);
+    }
+
+    @Test
+    public void selectedIsTheSameWhereverTheIssuesComeFrom() throws IOException, InterruptedException {
+        XcalscanAnalysisAction action = SyntheticScan.action(1000, true);
+        List<String> lines = new ArrayList<>();
+        for (IssueDiff issueDiff : action.getIssueDiffs()) {
+            lines.add(CommonUtil.objectMapper.writeValueAsString(issueDiff));
+        }
+        lines.add("{invalid");
+        Files.write(new File(workspace.getRoot(), "issues.jsonl").toPath(), lines, StandardCharsets.UTF_8);
+        ReviewRenderOptions options = ReviewRenderOptions.builder()
+                .locales(Collections.singletonList(Locale.ENGLISH))
+                .maxIssues(500)
+                .build();
+
+        RenderedReview fromAction = options.render(action, null, null);
+        RenderedReview streamed = options.render(action, new IssueDiffStreamCallable(options).invoke(new File(workspace.getRoot(), "issues.jsonl"), null), null);
+        RenderReviewCallable.Result onAgent = new RenderReviewCallable(options, action, new File(workspace.getRoot(), "issues.jsonl").getPath(), null).invoke(workspace.getRoot(), null);
+
+        assertEquals(1001, onAgent.getRecords());
+        assertEquals(1000, fromAction.getSelected());
+        assertEquals(fromAction.getSelected(), streamed.getSelected());
+        assertEquals(fromAction.getSelected(), onAgent.readRenderedReview().getSelected());
+    }
+
+    private static RenderedReview render(XcalscanAnalysisAction action, List<Locale> locales, boolean combineLocales, int maxMessageBytes) {
+        return ReviewRenderOptions.builder()
+                .locales(locales)
+                .combineLocales(combineLocales)
+                .maxIssues(500)
+                .maxMessageBytes(maxMessageBytes)
+                .shardMessages(true)
+                .build()
+                .render(action, null, null);
+    }
+
+    private static List<String> messages(RenderedReview rendered) {
+        List<String> messages = new ArrayList<>();
+        for (ReviewInput reviewInput : rendered.getReviewInputs()) {
+            messages.add(reviewInput.message);
+        }
+        return messages;
+    }
+
+    private static void assertListedOnce(XcalscanAnalysisAction action, List<String> messages, Pattern row) {
+        List<String> listed = new ArrayList<>();
+        for (String message : messages) {
+            listed.addAll(rows(message, row));
+        }
+        List<String> expected = new ArrayList<>();
+        for (IssueDiff issueDiff : action.getIssueDiffs()) {
+            expected.add(issueDiff.getIssue().getSeq());
+        }
+        Collections.sort(listed);
+        Collections.sort(expected);
+        assertEquals(expected, listed);
+    }
+
+    private static List<String> rows(String message, Pattern row) {
+        List<String> seqs = new ArrayList<>();
+        Matcher matcher = row.matcher(message);
+        while (matcher.find()) {
+            seqs.add(matcher.group(1));
+        }
+        return seqs;
+    }
+
+    private static int bytes(String message) {
+        return message.getBytes(StandardCharsets.UTF_8).length;
+    }
+}